@@ -0,0 +1,148 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Tracks how far log output is backed up and decides how much optional work the {@link Formatter}
+ * sheds in response.
+ *
+ * <p>Pressure is measured from two signals: the latency of writing log entries to the output
+ * stream, averaged over recent writes, and the fill level of the queue of an asynchronous handler.
+ * Each signal is divided by its threshold, and the greater of the two is the pressure. A pressure
+ * of 1 enters the first {@link Stage}; each further stage is entered when the pressure doubles
+ * again. A stage is left once the pressure drops below half of what it took to enter it, so the
+ * stage does not flap while the pressure hovers around a threshold.
+ *
+ * <p>Write latency is measured by {@link Formatter#format(org.jboss.logmanager.ExtLogRecord,
+ * java.io.OutputStream)}; the queue fill level is reported by {@link
+ * eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler}. Without either, the
+ * pressure stays at 0.
+ *
+ * @see Formatter#setAdaptiveDegradation(AdaptiveDegradation)
+ */
+public final class AdaptiveDegradation {
+
+  /** The key under which the current {@link Stage} is reported in degraded log entries. */
+  public static final String DEGRADATION_KEY = "logDegradation";
+
+  /** {@link Stage#SAMPLED} keeps one in this many log entries of level {@code INFO} and below. */
+  public static final int SAMPLING_RATE = 10;
+
+  /** The weight of the latest write in the average write latency, as a power of two. */
+  private static final int LATENCY_WEIGHT_SHIFT = 3;
+
+  /** How much optional work is shed. Each stage includes the measures of the ones before it. */
+  public enum Stage {
+
+    /** Log entries are complete. */
+    NONE,
+
+    /** The source location is omitted, and the caller of log records is not calculated. */
+    NO_SOURCE_LOCATION,
+
+    /** The mapped and nested diagnostic contexts and the results of providers are omitted. */
+    NO_CONTEXT,
+
+    /** Stack traces are truncated to a few frames per exception. */
+    TRUNCATED_STACK_TRACES,
+
+    /**
+     * Only one in {@value AdaptiveDegradation#SAMPLING_RATE} log entries of level {@code INFO} and
+     * below is kept.
+     */
+    SAMPLED;
+
+    final KeyValueParameter marker =
+        KeyValueParameter.of(DEGRADATION_KEY, name().toLowerCase(Locale.ROOT).replace('_', '-'));
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final long latencyThresholdNanos;
+  private final double queueFillThreshold;
+
+  private volatile long averageLatencyNanos = 0;
+  private volatile double queueFill = 0;
+  private volatile Stage stage = Stage.NONE;
+
+  /**
+   * Constructs an {@link AdaptiveDegradation}.
+   *
+   * @param latencyThreshold the average write latency at which the first stage is entered.
+   * @param queueFillThreshold the fraction of the queue of an asynchronous handler that needs to
+   *     be filled for the first stage to be entered.
+   */
+  public AdaptiveDegradation(Duration latencyThreshold, double queueFillThreshold) {
+    if (latencyThreshold.isNegative() || latencyThreshold.isZero()) {
+      throw new IllegalArgumentException("latencyThreshold must be positive: " + latencyThreshold);
+    }
+    if (!(queueFillThreshold > 0 && queueFillThreshold <= 1)) {
+      throw new IllegalArgumentException(
+          "queueFillThreshold must be in (0, 1]: " + queueFillThreshold);
+    }
+
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.queueFillThreshold = queueFillThreshold;
+  }
+
+  /**
+   * The current stage.
+   *
+   * @return the current {@link Stage}.
+   */
+  public Stage getStage() {
+    return stage;
+  }
+
+  /**
+   * Records the time it took to write a log entry.
+   *
+   * <p>Concurrent updates may lose samples, which only makes the average a little less precise.
+   *
+   * @param nanos the duration of the write in nanoseconds.
+   */
+  public void recordWriteLatency(long nanos) {
+    var average = averageLatencyNanos;
+    averageLatencyNanos = average + ((nanos - average) >> LATENCY_WEIGHT_SHIFT);
+    update();
+  }
+
+  /**
+   * Records the number of log records waiting in the queue of an asynchronous handler.
+   *
+   * @param depth the number of log records in the queue.
+   * @param capacity the number of log records the queue can hold.
+   */
+  public void recordQueueDepth(int depth, int capacity) {
+    queueFill = (double) depth / capacity;
+    update();
+  }
+
+  private void update() {
+    var pressure =
+        Math.max(
+            (double) averageLatencyNanos / latencyThresholdNanos, queueFill / queueFillThreshold);
+
+    var current = stage.ordinal();
+    var next = current;
+    while (next < STAGES.length - 1 && pressure >= entryPressure(next + 1)) {
+      next++;
+    }
+    while (next > 0 && pressure < entryPressure(next) / 2) {
+      next--;
+    }
+
+    if (next != current) {
+      stage = STAGES[next];
+    }
+  }
+
+  private static double entryPressure(int stage) {
+    return 1 << (stage - 1);
+  }
+}
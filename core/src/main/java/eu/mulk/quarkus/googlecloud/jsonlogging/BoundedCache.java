@@ -0,0 +1,85 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A bounded cache with lock-free lookups that keeps the entries that are in use.
+ *
+ * <p>Entries are kept in two generations. New entries go into the current generation. When it is
+ * full, it becomes the previous generation, and the former previous generation is discarded. An
+ * entry that is found in the previous generation is copied into the current one, so entries that
+ * are used at least once per generation stay cached, while entries that are only used once, such
+ * as keys that are generated dynamically, fall out after two generations.
+ *
+ * <p>The cache holds at most {@code capacity} entries, give or take a few that are inserted
+ * concurrently with a change of generations.
+ *
+ * <p>Lookups may use a mutable probe as the key, as long as the cache is constructed with a
+ * function that copies such a probe into a key that can be stored.
+ */
+final class BoundedCache<K, V> {
+
+  private final int generationCapacity;
+  private final UnaryOperator<K> storedKey;
+
+  private volatile ConcurrentHashMap<K, V> current = new ConcurrentHashMap<>();
+  private volatile ConcurrentHashMap<K, V> previous = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs an empty {@link BoundedCache} whose keys are stored as they are passed in.
+   *
+   * @param capacity the maximum number of entries.
+   */
+  BoundedCache(int capacity) {
+    this(capacity, UnaryOperator.identity());
+  }
+
+  /**
+   * Constructs an empty {@link BoundedCache}.
+   *
+   * @param capacity the maximum number of entries.
+   * @param storedKey turns a key passed to {@link #get} or {@link #put} into one that can be
+   *     stored.
+   */
+  BoundedCache(int capacity, UnaryOperator<K> storedKey) {
+    if (capacity < 2) {
+      throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+    }
+
+    this.generationCapacity = capacity / 2;
+    this.storedKey = storedKey;
+  }
+
+  /** Returns the value cached for {@code key}, or {@code null} if there is none. */
+  @Nullable V get(K key) {
+    var value = current.get(key);
+    if (value == null) {
+      value = previous.get(key);
+      if (value != null) {
+        put(key, value);
+      }
+    }
+    return value;
+  }
+
+  /** Caches {@code value} for {@code key}, evicting the oldest generation if necessary. */
+  void put(K key, V value) {
+    var generation = current;
+    generation.putIfAbsent(storedKey.apply(key), value);
+
+    if (generation.size() >= generationCapacity) {
+      synchronized (this) {
+        if (current == generation) {
+          previous = generation;
+          current = new ConcurrentHashMap<>();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Collapses consecutive duplicate log entries of a logger into a single log entry.
+ *
+ * <p>Two log records are duplicates if they have the same level, logger, format string, and
+ * parameters, and if their throwables, if any, have the same class and message. The first log
+ * record of a run of duplicates is written as usual. Its duplicates within the configured window
+ * are suppressed before any provider is called and before anything is serialized.
+ *
+ * <p>Once the logger writes a log record that is not a duplicate or the window has passed, the last
+ * suppressed duplicate is written right before it with the {@value #REPEAT_COUNT_KEY}, {@value
+ * #FIRST_TIMESTAMP_KEY}, and {@value #LAST_TIMESTAMP_KEY} fields added, which hold the number of
+ * suppressed duplicates and the timestamps of the first and last of them. If the logger does not
+ * log again, the collapsed log entry is written by {@link Formatter#formatPending} or {@link
+ * Formatter#publishPending} once the window has passed, which is also when the run stops holding
+ * on to its first log record.
+ *
+ * <p>The number of loggers that are tracked at a time is bounded; log records of loggers beyond
+ * that are never collapsed. Loggers stop being tracked when their window has passed.
+ *
+ * @see Formatter#setDuplicateCollapser(DuplicateCollapser)
+ */
+public final class DuplicateCollapser {
+
+  /** The key under which the number of suppressed duplicates is reported. */
+  public static final String REPEAT_COUNT_KEY = "repeatCount";
+
+  /** The key under which the timestamp of the first suppressed duplicate is reported. */
+  public static final String FIRST_TIMESTAMP_KEY = "firstTimestamp";
+
+  /** The key under which the timestamp of the last suppressed duplicate is reported. */
+  public static final String LAST_TIMESTAMP_KEY = "lastTimestamp";
+
+  private static final int MAX_LOGGERS = 4096;
+
+  private final Duration window;
+
+  private final ConcurrentHashMap<String, Run> runs = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a {@link DuplicateCollapser}.
+   *
+   * @param window the maximum time between the first log entry of a run of duplicates and the
+   *     duplicates that are collapsed into it.
+   */
+  public DuplicateCollapser(Duration window) {
+    if (window.isNegative() || window.isZero()) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+
+    this.window = window;
+  }
+
+  /**
+   * The maximum time between the first log entry of a run of duplicates and the duplicates that
+   * are collapsed into it.
+   *
+   * @return the window.
+   */
+  public Duration getWindow() {
+    return window;
+  }
+
+  /**
+   * Records a log record as the latest one of its logger.
+   *
+   * @param logRecord the log record that is about to be formatted.
+   * @return {@code null} if the log record is to be suppressed; {@code logRecord} if it is to be
+   *     written; or another log record, which collapses the preceding run of duplicates and is to
+   *     be written before {@code logRecord}.
+   */
+  @Nullable
+  ExtLogRecord admit(ExtLogRecord logRecord) {
+    var loggerName = logRecord.getLoggerName();
+    if (loggerName == null) {
+      return logRecord;
+    }
+
+    while (true) {
+      var run = runs.get(loggerName);
+      if (run == null) {
+        if (runs.size() >= MAX_LOGGERS) {
+          return logRecord;
+        }
+        run = runs.computeIfAbsent(loggerName, k -> new Run());
+      }
+
+      synchronized (run) {
+        // A run that has been removed by flush() must not collect duplicates that are never
+        // reported, so look the logger up again.
+        if (!run.removed) {
+          return run.admit(logRecord, window);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ends the runs of duplicates whose window has passed.
+   *
+   * @param now the current time.
+   * @param all whether to end all runs of duplicates, including those whose window has not passed
+   *     yet.
+   * @param collapsed receives the log records that collapse the runs of duplicates that are ended,
+   *     if they have any suppressed duplicates.
+   */
+  void flush(Instant now, boolean all, Collection<ExtLogRecord> collapsed) {
+    for (var entry : runs.entrySet()) {
+      var run = entry.getValue();
+      synchronized (run) {
+        if (!all && !run.hasExpired(now, window)) {
+          continue;
+        }
+
+        if (run.duplicates > 0) {
+          collapsed.add(run.collapse());
+        }
+        run.removed = true;
+        runs.remove(entry.getKey(), run);
+      }
+    }
+  }
+
+  private static boolean isDuplicate(ExtLogRecord a, ExtLogRecord b) {
+    return a.getLevel() == b.getLevel()
+        && Objects.equals(a.getMessage(), b.getMessage())
+        && Arrays.equals(a.getParameters(), b.getParameters())
+        && isDuplicate(a.getThrown(), b.getThrown());
+  }
+
+  private static boolean isDuplicate(@Nullable Throwable a, @Nullable Throwable b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+
+    return a.getClass() == b.getClass() && Objects.equals(a.getMessage(), b.getMessage());
+  }
+
+  /**
+   * The latest run of duplicates of a logger.
+   *
+   * <p>Guarded by its own monitor.
+   */
+  private static final class Run {
+
+    private @Nullable ExtLogRecord head = null;
+    private @Nullable ExtLogRecord lastDuplicate = null;
+    private @Nullable Instant firstDuplicateTimestamp = null;
+    private long duplicates = 0;
+    private boolean removed = false;
+
+    private boolean hasExpired(Instant now, Duration window) {
+      var currentHead = head;
+      return currentHead == null
+          || Duration.between(currentHead.getInstant(), now).compareTo(window) > 0;
+    }
+
+    private @Nullable ExtLogRecord admit(ExtLogRecord logRecord, Duration window) {
+      var timestamp = logRecord.getInstant();
+
+      var currentHead = head;
+      if (currentHead != null
+          && isDuplicate(currentHead, logRecord)
+          && Duration.between(currentHead.getInstant(), timestamp).compareTo(window) <= 0) {
+        if (duplicates == 0) {
+          firstDuplicateTimestamp = timestamp;
+        }
+        // The collapsed log entry may be written on a different thread.
+        logRecord.copyMdc();
+        lastDuplicate = logRecord;
+        duplicates++;
+        return null;
+      }
+
+      var collapsed = duplicates == 0 ? logRecord : collapse();
+      head = logRecord;
+      lastDuplicate = null;
+      firstDuplicateTimestamp = null;
+      duplicates = 0;
+      return collapsed;
+    }
+
+    private ExtLogRecord collapse() {
+      var last = Objects.requireNonNull(lastDuplicate);
+      var first = Objects.requireNonNull(firstDuplicateTimestamp);
+
+      var parameters = last.getParameters();
+      var parameterCount = parameters == null ? 0 : parameters.length;
+      var collapsedParameters =
+          parameters == null
+              ? new Object[3]
+              : Arrays.copyOf(parameters, parameterCount + 3, Object[].class);
+      collapsedParameters[parameterCount] = KeyValueParameter.of(REPEAT_COUNT_KEY, duplicates);
+      collapsedParameters[parameterCount + 1] =
+          KeyValueParameter.of(FIRST_TIMESTAMP_KEY, first.toString());
+      collapsedParameters[parameterCount + 2] =
+          KeyValueParameter.of(LAST_TIMESTAMP_KEY, last.getInstant().toString());
+
+      var collapsed = new ExtLogRecord(last);
+      collapsed.setParameters(collapsedParameters);
+      return collapsed;
+    }
+  }
+}
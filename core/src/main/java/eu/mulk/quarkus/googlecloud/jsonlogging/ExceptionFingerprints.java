@@ -0,0 +1,139 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the occurrences of exceptions by fingerprint so that repeated stack traces can be
+ * abbreviated.
+ *
+ * <p>The fingerprint of an exception is computed from its class, its top stack frames, the classes
+ * of its causes, and the top stack frames of its root cause. It does not depend on exception
+ * messages, which often contain request-specific details.
+ *
+ * <p>Each fingerprint has a window that starts with an occurrence whose stack trace is rendered in
+ * full. Further occurrences within the window are counted, and their stack traces are abbreviated.
+ *
+ * <p>The table of fingerprints is bounded. It is split into segments, each of which is locked
+ * separately and evicts its least recently used fingerprint when it is full.
+ */
+final class ExceptionFingerprints {
+
+  private static final int TOP_FRAMES = 5;
+  private static final int MAX_CAUSES = 16;
+
+  private static final int SEGMENTS = 16;
+  private static final int CAPACITY = 4096;
+
+  private final long windowNanos;
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  /**
+   * Constructs an empty {@link ExceptionFingerprints} table.
+   *
+   * @param window the time after which the stack trace of a fingerprint is rendered in full again.
+   */
+  ExceptionFingerprints(Duration window) {
+    this.windowNanos = window.toNanos();
+    for (var i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(CAPACITY / SEGMENTS);
+    }
+  }
+
+  /** Computes the fingerprint of {@code throwable}. */
+  static long fingerprintOf(Throwable throwable) {
+    var h = mix(0, throwable.getClass().getName().hashCode());
+    h = mixFrames(h, throwable);
+
+    var rootCause = throwable;
+    var cause = throwable.getCause();
+    for (var i = 0; cause != null && cause != rootCause && i < MAX_CAUSES; i++) {
+      h = mix(h, cause.getClass().getName().hashCode());
+      rootCause = cause;
+      cause = cause.getCause();
+    }
+
+    if (rootCause != throwable) {
+      h = mixFrames(h, rootCause);
+    }
+
+    // Finalize as in MurmurHash3 so that similar inputs yield dissimilar fingerprints.
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static long mixFrames(long h, Throwable throwable) {
+    var trace = throwable.getStackTrace();
+    for (var i = 0; i < trace.length && i < TOP_FRAMES; i++) {
+      h = mix(h, trace[i].hashCode());
+    }
+    return h;
+  }
+
+  private static long mix(long h, int x) {
+    return (h ^ x) * 0x9E3779B97F4A7C15L;
+  }
+
+  /**
+   * Records an occurrence of an exception.
+   *
+   * @param fingerprint the fingerprint of the exception as computed by {@link #fingerprintOf}.
+   * @param now the current value of {@link System#nanoTime()}.
+   * @return the number of occurrences of the fingerprint in its current window, including this
+   *     one; 1 if the stack trace is to be rendered in full.
+   */
+  long occurrence(long fingerprint, long now) {
+    var segment = segments[(int) (fingerprint >>> 32) & (SEGMENTS - 1)];
+    synchronized (segment) {
+      var window = segment.get(fingerprint);
+      if (window == null) {
+        segment.put(fingerprint, new Window(now));
+        return 1;
+      }
+
+      if (now - window.start > windowNanos) {
+        window.start = now;
+        window.occurrences = 1;
+      } else {
+        window.occurrences++;
+      }
+      return window.occurrences;
+    }
+  }
+
+  /** The current window of a fingerprint. */
+  private static final class Window {
+
+    long start;
+    long occurrences = 1;
+
+    Window(long start) {
+      this.start = start;
+    }
+  }
+
+  /** A part of the table that evicts its least recently used entry when it is full. */
+  private static final class Segment extends LinkedHashMap<Long, Window> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest) {
+      return size() > capacity;
+    }
+  }
+}
@@ -4,15 +4,22 @@
 
 package eu.mulk.quarkus.googlecloud.jsonlogging;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import eu.mulk.quarkus.googlecloud.jsonlogging.AdaptiveDegradation.Stage;
+import eu.mulk.quarkus.googlecloud.jsonlogging.FormatterMetrics.DropReason;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.ServiceLoader.Provider;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Filter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import org.jboss.logmanager.ExtFormatter;
 import org.jboss.logmanager.ExtLogRecord;
-import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 /**
@@ -37,9 +44,34 @@ public class Formatter extends ExtFormatter {
   private static final String ERROR_EVENT_TYPE =
       "type.googleapis.com/google.devtools.clouderrorreporting.v1beta1.ReportedErrorEvent";
 
-  private final List<StructuredParameterProvider> parameterProviders;
-  private final List<LabelProvider> labelProviders;
-  private final ThreadLocal<@Nullable StringBuilder> stringBuilder;
+  private static final int TRUNCATED_STACK_TRACE_FRAMES = 5;
+
+  private static final int SCRATCH_POOL_CAPACITY =
+      Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+
+  private volatile ScopedProviders providers;
+  private volatile @Nullable ProviderInvoker providerInvoker = null;
+  private final Pool<Scratch> scratchPool;
+  private final AtomicInteger bufferHighWaterMark = new AtomicInteger();
+
+  private volatile int maxPooledBufferSize = 64 * 1024;
+  private volatile SourceLocationMode sourceLocationMode = SourceLocationMode.ALWAYS;
+  private volatile int maxStackTraceFrames = 0;
+  private volatile List<String> foldedStackTracePackages = List.of();
+  private volatile StackTraceRenderer stackTraceRenderer = StackTraceRenderer.FULL;
+  private volatile StackTraceRenderer truncatedStackTraceRenderer =
+      new StackTraceRenderer(TRUNCATED_STACK_TRACE_FRAMES, List.of());
+  private volatile Duration repeatedStackTraceWindow = Duration.ZERO;
+  private volatile @Nullable ExceptionFingerprints exceptionFingerprints = null;
+  private volatile @Nullable TraceContextProvider traceContextProvider = null;
+  private volatile @Nullable String traceProjectId = null;
+  private volatile byte @Nullable [] tracePrefix = null;
+  private volatile @Nullable VerboseLogging verboseLogging = null;
+  private volatile @Nullable Filter filter = null;
+  private volatile @Nullable DuplicateCollapser duplicateCollapser = null;
+  private volatile @Nullable RateLimiter rateLimiter = null;
+  private volatile @Nullable FormatterMetrics metrics = null;
+  private volatile @Nullable AdaptiveDegradation adaptiveDegradation = null;
 
   /**
    * Constructs a {@link Formatter} with custom configuration.
@@ -53,9 +85,9 @@ public class Formatter extends ExtFormatter {
   public Formatter(
       Collection<StructuredParameterProvider> parameterProviders,
       Collection<LabelProvider> labelProviders) {
-    this.parameterProviders = List.copyOf(parameterProviders);
-    this.labelProviders = List.copyOf(labelProviders);
-    this.stringBuilder = ThreadLocal.withInitial(StringBuilder::new);
+    this.providers =
+        new ScopedProviders(List.copyOf(parameterProviders), List.copyOf(labelProviders), null);
+    this.scratchPool = new Pool<>(SCRATCH_POOL_CAPACITY, Scratch::new);
   }
 
   /**
@@ -97,106 +129,833 @@ public class Formatter extends ExtFormatter {
 
   @Override
   public String format(ExtLogRecord logRecord) {
-    var message = formatMessageWithStackTrace(logRecord);
+    var scratch = scratchPool.acquire();
+    try {
+      var b = formatJson(logRecord, scratch);
+      return b.size() == 0 ? "" : b.toString();
+    } finally {
+      release(scratch);
+    }
+  }
 
-    List<StructuredParameter> parameters = new ArrayList<>();
-    Map<String, String> labels = new HashMap<>();
+  /**
+   * Formats a log record as UTF-8-encoded JSON and writes it to an {@link OutputStream}.
+   *
+   * <p>Unlike {@link #format(ExtLogRecord)}, this method does not construct an intermediate {@link
+   * String}. The encoded log entry is passed to {@code out} in a single call to {@link
+   * OutputStream#write(byte[], int, int)}, which makes it suitable for unbuffered streams.
+   *
+   * @param logRecord the log record to format.
+   * @param out the stream to write the formatted log entry to.
+   * @throws IOException if writing to {@code out} fails.
+   */
+  public void format(ExtLogRecord logRecord, OutputStream out) throws IOException {
+    var scratch = scratchPool.acquire();
+    try {
+      var b = formatJson(logRecord, scratch);
+      if (b.size() > 0) {
+        var adaptiveDegradation = this.adaptiveDegradation;
+        if (adaptiveDegradation == null) {
+          b.writeTo(out);
+        } else {
+          var start = System.nanoTime();
+          b.writeTo(out);
+          adaptiveDegradation.recordWriteLatency(System.nanoTime() - start);
+        }
+      }
+    } finally {
+      release(scratch);
+    }
+  }
 
-    var providerContext = new ProviderContext(logRecord);
+  /**
+   * Writes the log entries that are held back to be written before a later log entry of the same
+   * logger, in UTF-8-encoded JSON, to an {@link OutputStream}.
+   *
+   * <p>A {@link DuplicateCollapser} holds back the collapsed log entry of a run of duplicates until
+   * the logger writes another log entry, and a {@link RateLimiter} holds back the summary of
+   * suppressed log entries until the next log entry is let through. This method writes the
+   * collapsed log entries of runs whose window has passed and the summaries of keys whose bucket
+   * has refilled, so that they are not held back indefinitely if the logger goes quiet. Handlers
+   * should call it periodically and, with {@code all} set, when they are closed.
+   *
+   * @see #publishPending(Handler, boolean)
+   *
+   * @param out the stream to write the log entries to.
+   * @param all whether to write all log entries that are held back, including those of runs of
+   *     duplicates and rate limits that may still go on.
+   * @throws IOException if writing to {@code out} fails.
+   */
+  public void formatPending(OutputStream out, boolean all) throws IOException {
+    var pending = collectPending(all);
+    if (pending.isEmpty()) {
+      return;
+    }
 
-    for (var parameterProvider : parameterProviders) {
-      var parameter = parameterProvider.getParameter(providerContext);
-      if (parameter != null) {
-        parameters.add(parameter);
+    var adaptiveDegradation = this.adaptiveDegradation;
+    var stage = adaptiveDegradation == null ? Stage.NONE : adaptiveDegradation.getStage();
+    var metrics = this.metrics;
+    var scratch = scratchPool.acquire();
+    try {
+      var b = scratch.buffer;
+      b.reset();
+      for (var logRecord : pending) {
+        appendJson(logRecord, scratch, stage, metrics);
       }
+      b.writeTo(out);
+    } finally {
+      release(scratch);
     }
+  }
 
-    for (var labelProvider : labelProviders) {
-      var providedLabels = labelProvider.getLabels(providerContext);
-      if (providedLabels != null) {
-        for (var label : providedLabels) {
-          labels.put(label.key(), label.value());
-        }
+  /**
+   * Publishes the log entries that are held back to be written before a later log entry of the
+   * same logger through a {@link Handler} that uses this formatter.
+   *
+   * <p>Like {@link #formatPending(OutputStream, boolean)}, but for handlers that do not let anyone
+   * else write to their output, such as the console handler of Quarkus. Each log entry is passed
+   * to {@link Handler#publish}, and this formatter formats it without applying the filter, the
+   * duplicate collapser, or the rate limiter a second time.
+   *
+   * @param handler a handler whose formatter is this formatter.
+   * @param all whether to publish all log entries that are held back, including those of runs of
+   *     duplicates and rate limits that may still go on.
+   */
+  public void publishPending(Handler handler, boolean all) {
+    for (var logRecord : collectPending(all)) {
+      handler.publish(new PendingLogRecord(logRecord));
+    }
+  }
+
+  private List<ExtLogRecord> collectPending(boolean all) {
+    var duplicateCollapser = this.duplicateCollapser;
+    var rateLimiter = this.rateLimiter;
+    if (duplicateCollapser == null && rateLimiter == null) {
+      return List.of();
+    }
+
+    var pending = new ArrayList<ExtLogRecord>();
+    if (duplicateCollapser != null) {
+      duplicateCollapser.flush(Instant.now(), all, pending);
+    }
+    if (rateLimiter != null) {
+      rateLimiter.flush(all, pending);
+    }
+    return pending;
+  }
+
+  /**
+   * Formats a log record into the {@link JsonBuffer} of {@code scratch}.
+   *
+   * <p>Log records that are suppressed leave the buffer empty. Collapsed duplicates and summaries
+   * of earlier log records that were suppressed come before the log entry in the buffer.
+   *
+   * @return the buffer of {@code scratch}, which holds the formatted log entries.
+   */
+  private JsonBuffer formatJson(ExtLogRecord logRecord, Scratch scratch) {
+    var metrics = this.metrics;
+    if (metrics == null) {
+      return formatJson(logRecord, scratch, null);
+    }
+
+    var start = System.nanoTime();
+    try {
+      return formatJson(logRecord, scratch, metrics);
+    } finally {
+      metrics.recordFormatLatency(System.nanoTime() - start);
+    }
+  }
+
+  private JsonBuffer formatJson(
+      ExtLogRecord logRecord, Scratch scratch, @Nullable FormatterMetrics metrics) {
+    var b = scratch.buffer;
+    b.reset();
+
+    var adaptiveDegradation = this.adaptiveDegradation;
+    var stage = adaptiveDegradation == null ? Stage.NONE : adaptiveDegradation.getStage();
+    if (logRecord instanceof PendingLogRecord) {
+      // Held back by this formatter, so it has been filtered and admitted already.
+      appendJson(logRecord, scratch, stage, metrics);
+      return b;
+    }
+
+    var verboseLogging = this.verboseLogging;
+    if (verboseLogging != null && !verboseLogging.isLoggable(logRecord)) {
+      return dropped(b, metrics, DropReason.FILTERED);
+    }
+
+    var filter = this.filter;
+    if (filter != null && !filter.isLoggable(logRecord)) {
+      return dropped(b, metrics, DropReason.FILTERED);
+    }
+
+    if (stage == Stage.SAMPLED
+        && logRecord.getLevel().intValue() <= Level.INFO.intValue()
+        && ThreadLocalRandom.current().nextInt(AdaptiveDegradation.SAMPLING_RATE) != 0) {
+      return dropped(b, metrics, DropReason.SAMPLED);
+    }
+
+    var duplicateCollapser = this.duplicateCollapser;
+    if (duplicateCollapser != null) {
+      var admitted = duplicateCollapser.admit(logRecord);
+      if (admitted == null) {
+        return dropped(b, metrics, DropReason.COLLAPSED);
+      } else if (admitted != logRecord) {
+        appendJson(admitted, scratch, stage, metrics);
       }
     }
 
-    String insertId = null;
+    var rateLimiter = this.rateLimiter;
+    if (rateLimiter != null) {
+      var suppressed =
+          rateLimiter.admit(
+              logRecord, scratch.callSite, isCallerCalculationRequired(logRecord.getLevel()));
+      if (suppressed < 0) {
+        return dropped(b, metrics, DropReason.RATE_LIMITED);
+      } else if (suppressed > 0) {
+        appendJson(rateLimiter.summaryOf(logRecord, suppressed), scratch, stage, metrics);
+      }
+    }
+
+    appendJson(logRecord, scratch, stage, metrics);
+
+    var size = b.size();
+    if (size > bufferHighWaterMark.get()) {
+      bufferHighWaterMark.accumulateAndGet(size, Math::max);
+    }
+
+    return b;
+  }
+
+  private static JsonBuffer dropped(
+      JsonBuffer b, @Nullable FormatterMetrics metrics, DropReason reason) {
+    if (metrics != null) {
+      metrics.recordDrop(reason);
+    }
+    return b;
+  }
+
+  /**
+   * Appends a log record as a line of JSON to the {@link JsonBuffer} of {@code scratch}.
+   *
+   * @param stage how much optional work to shed.
+   * @param metrics receives measurements, if not {@code null}.
+   */
+  private void appendJson(
+      ExtLogRecord logRecord, Scratch scratch, Stage stage, @Nullable FormatterMetrics metrics) {
+    var entry = scratch.entry;
+    var providerContext = scratch.providerContext;
+    try {
+      providerContext.set(logRecord);
+      if (stage.compareTo(Stage.NO_CONTEXT) < 0) {
+        if (metrics == null) {
+          providers.collect(providerContext, entry);
+        } else {
+          var start = System.nanoTime();
+          providers.collect(providerContext, entry);
+          metrics.recordProviderLatency(System.nanoTime() - start);
+        }
+      }
 
-    var logRecordParameters = logRecord.getParameters();
-    if (logRecordParameters != null) {
-      for (var parameter : logRecordParameters) {
-        if (parameter instanceof StructuredParameter) {
-          parameters.add((StructuredParameter) parameter);
-        } else if (parameter instanceof Label) {
-          var label = (Label) parameter;
-          labels.put(label.key(), label.value());
-        } else if (parameter instanceof InsertId) {
-          insertId = ((InsertId) parameter).value();
+      var logRecordParameters = logRecord.getParameters();
+      if (logRecordParameters != null) {
+        for (var parameter : logRecordParameters) {
+          if (parameter instanceof StructuredParameter) {
+            entry.addParameter((StructuredParameter) parameter);
+          } else if (parameter instanceof Label) {
+            entry.putLabel((Label) parameter);
+          } else if (parameter instanceof InsertId) {
+            entry.setInsertId(((InsertId) parameter).value());
+          }
         }
       }
+
+      if (stage.compareTo(Stage.NO_CONTEXT) < 0) {
+        // The log manager has no public way to enumerate the mapped diagnostic context of a log
+        // record or to tell whether it has changed, so it is copied for every log entry.
+        entry.setDiagnosticContexts(logRecord.getMdcCopy(), logRecord.getNdc());
+      }
+
+      if (stage != Stage.NONE) {
+        entry.addParameter(stage.marker);
+      }
+
+      var traceContextProvider = this.traceContextProvider;
+      if (traceContextProvider != null) {
+        var traceContext = scratch.traceContext;
+        traceContext.reset(tracePrefix);
+        traceContextProvider.writeTraceContext(logRecord, traceContext);
+        entry.setTraceContext(traceContext);
+      }
+
+      var level = logRecord.getLevel();
+      if (stage == Stage.NONE && isSourceLocationIncluded(level)) {
+        entry.setSourceLocation(SourceLocations.of(logRecord, scratch.callSite));
+      }
+
+      var thrown = logRecord.getThrown();
+      var exceptionFingerprints = this.exceptionFingerprints;
+      var occurrences = 1L;
+      if (thrown != null && exceptionFingerprints != null) {
+        var fingerprint = ExceptionFingerprints.fingerprintOf(thrown);
+        occurrences = exceptionFingerprints.occurrence(fingerprint, System.nanoTime());
+        entry.setExceptionFingerprint(fingerprint, occurrences);
+      }
+
+      entry.setMessage(
+          formatMessage(logRecord),
+          thrown,
+          stage.compareTo(Stage.TRUNCATED_STACK_TRACES) < 0
+              ? stackTraceRenderer
+              : truncatedStackTraceRenderer);
+      var severity = severityOf(level);
+      entry.setSeverity(severity, level.intValue() >= 1000 ? ERROR_EVENT_TYPE : null);
+      entry.setTimestamp(logRecord.getInstant());
+
+      var b = scratch.buffer;
+      var start = b.size();
+      b.append('{');
+      entry.json(b);
+      b.append('}');
+      b.append('\n');
+
+      if (metrics != null) {
+        metrics.recordEntry(severity, b.size() - start);
+        if (thrown != null && occurrences == 1) {
+          metrics.recordStackTrace();
+        }
+      }
+    } finally {
+      entry.clear();
+      providerContext.clear();
+    }
+  }
+
+  private void release(Scratch scratch) {
+    scratch.buffer.trim(maxPooledBufferSize);
+    scratchPool.release(scratch);
+  }
+
+  /**
+   * The size above which buffers are not kept for reuse.
+   *
+   * @return the maximum size of pooled buffers in bytes.
+   * @see #setMaxPooledBufferSize(int)
+   */
+  public int getMaxPooledBufferSize() {
+    return maxPooledBufferSize;
+  }
+
+  /**
+   * Sets the size above which buffers are not kept for reuse.
+   *
+   * <p>Log entries are formatted in buffers that are taken from a bounded pool shared by all
+   * threads. A buffer that has grown beyond this size to hold a large log entry is replaced by a
+   * small one before it goes back into the pool, so that a single large log entry does not pin a
+   * large amount of memory.
+   *
+   * <p>Defaults to 64 KiB.
+   *
+   * @param maxPooledBufferSize the maximum size of pooled buffers in bytes.
+   */
+  public void setMaxPooledBufferSize(int maxPooledBufferSize) {
+    if (maxPooledBufferSize <= 0) {
+      throw new IllegalArgumentException(
+          "maxPooledBufferSize must be positive: " + maxPooledBufferSize);
+    }
+
+    this.maxPooledBufferSize = maxPooledBufferSize;
+  }
+
+  /**
+   * Statistics of the pool of buffers log entries are formatted in.
+   *
+   * @return a snapshot of the current statistics.
+   */
+  public BufferPoolStatistics getBufferPoolStatistics() {
+    return new BufferPoolStatistics(
+        scratchPool.hits(), scratchPool.misses(), bufferHighWaterMark.get());
+  }
+
+  /** A snapshot of the statistics of the pool of buffers log entries are formatted in. */
+  public static final class BufferPoolStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final int highWaterMark;
+
+    private BufferPoolStatistics(long hits, long misses, int highWaterMark) {
+      this.hits = hits;
+      this.misses = misses;
+      this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * The number of log entries formatted in a buffer taken from the pool.
+     *
+     * @return the number of pool hits.
+     */
+    public long hits() {
+      return hits;
+    }
+
+    /**
+     * The number of log entries for which a new buffer had to be created because the pool had
+     * none available.
+     *
+     * @return the number of pool misses.
+     */
+    public long misses() {
+      return misses;
+    }
+
+    /**
+     * The size of the largest log entry formatted so far.
+     *
+     * @return the size of the largest log entry in bytes.
+     */
+    public int highWaterMark() {
+      return highWaterMark;
     }
 
-    var mdc = logRecord.getMdcCopy();
-    var ndc = logRecord.getNdc();
+    @Override
+    public String toString() {
+      return "BufferPoolStatistics{hits="
+          + hits
+          + ", misses="
+          + misses
+          + ", highWaterMark="
+          + highWaterMark
+          + "}";
+    }
+  }
+
+  /**
+   * The {@link ProviderInvoker} that calls the providers of {@link ProviderScope#RECORD} scope.
+   *
+   * @return the current {@link ProviderInvoker}, or {@code null} if there is none.
+   * @see #setProviderInvoker(ProviderInvoker)
+   */
+  public @Nullable ProviderInvoker getProviderInvoker() {
+    return providerInvoker;
+  }
+
+  /**
+   * Sets the {@link ProviderInvoker} that calls the providers of {@link ProviderScope#RECORD}
+   * scope.
+   *
+   * <p>Providers whose class the {@link ProviderInvoker} does not know are called through their
+   * interface, as are all providers if there is no {@link ProviderInvoker}.
+   *
+   * <p>Results of providers of other scopes that have been cached so far are discarded.
+   *
+   * <p>Defaults to none.
+   *
+   * @param providerInvoker the new {@link ProviderInvoker}, or {@code null} for none.
+   */
+  public synchronized void setProviderInvoker(@Nullable ProviderInvoker providerInvoker) {
+    this.providers =
+        new ScopedProviders(
+            providers.parameterProviders(), providers.labelProviders(), providerInvoker);
+    this.providerInvoker = providerInvoker;
+  }
+
+  /**
+   * The maximum number of stack frames rendered per exception.
+   *
+   * @return the maximum number of stack frames, or 0 if there is no limit.
+   * @see #setMaxStackTraceFrames(int)
+   */
+  public int getMaxStackTraceFrames() {
+    return maxStackTraceFrames;
+  }
 
-    var sourceLocation = sourceLocationOf(logRecord);
+  /**
+   * Limits the number of stack frames rendered per exception.
+   *
+   * <p>This applies to each exception in the cause chain separately. Frames beyond the limit are
+   * counted in the {@code ... N more} line that also accounts for the frames an exception has in
+   * common with the exception it caused. A line that stands for folded frames (see {@link
+   * #setFoldedStackTracePackages(Collection)}) counts as a single frame.
+   *
+   * <p>Defaults to 0, which means that there is no limit.
+   *
+   * @param maxStackTraceFrames the maximum number of stack frames, or 0 for no limit.
+   */
+  public synchronized void setMaxStackTraceFrames(int maxStackTraceFrames) {
+    this.stackTraceRenderer =
+        new StackTraceRenderer(maxStackTraceFrames, foldedStackTracePackages);
+    this.truncatedStackTraceRenderer =
+        truncatedStackTraceRenderer(maxStackTraceFrames, foldedStackTracePackages);
+    this.maxStackTraceFrames = maxStackTraceFrames;
+  }
 
-    var entry =
-        new LogEntry(
-            message,
-            severityOf(logRecord.getLevel()),
-            new LogEntry.Timestamp(logRecord.getInstant()),
-            null,
-            null,
-            sourceLocation,
-            labels,
-            parameters,
-            mdc,
-            ndc,
-            logRecord.getLevel().intValue() >= 1000 ? ERROR_EVENT_TYPE : null,
-            insertId);
+  private static StackTraceRenderer truncatedStackTraceRenderer(
+      int maxStackTraceFrames, List<String> foldedStackTracePackages) {
+    var maxFrames =
+        maxStackTraceFrames == 0
+            ? TRUNCATED_STACK_TRACE_FRAMES
+            : Math.min(maxStackTraceFrames, TRUNCATED_STACK_TRACE_FRAMES);
+    return new StackTraceRenderer(maxFrames, foldedStackTracePackages);
+  }
 
-    var b = (@NonNull StringBuilder) stringBuilder.get();
-    b.delete(0, b.length());
-    b.append("{");
-    entry.json(b);
-    b.append("}\n");
-    return b.toString();
+  /**
+   * The package prefixes of stack frames that are folded.
+   *
+   * @return the package prefixes of stack frames that are folded.
+   * @see #setFoldedStackTracePackages(Collection)
+   */
+  public List<String> getFoldedStackTracePackages() {
+    return foldedStackTracePackages;
   }
 
-  private static LogEntry.@Nullable SourceLocation sourceLocationOf(ExtLogRecord logRecord) {
-    var sourceFileName = logRecord.getSourceFileName();
-    var sourceLineNumber = logRecord.getSourceLineNumber();
-    var sourceClassName = logRecord.getSourceClassName();
-    var sourceMethodName = logRecord.getSourceMethodName();
-    return (sourceFileName == null
-            && sourceLineNumber <= 0
-            && sourceClassName == null
-            && sourceMethodName == null)
-        ? null
-        : new LogEntry.SourceLocation(
-            sourceFileName,
-            String.valueOf(sourceLineNumber),
-            String.format("%s.%s", sourceClassName, sourceMethodName));
+  /**
+   * Sets the package prefixes of stack frames that are folded.
+   *
+   * <p>Consecutive stack frames from classes whose names start with the same prefix are rendered
+   * as a single line such as {@code ... 12 frames in io.vertx}. Frames up to and including the
+   * first frame that does not match any prefix are never folded, so the frames that tell where an
+   * exception originated stay intact.
+   *
+   * <p>Defaults to none.
+   *
+   * @param foldedStackTracePackages package prefixes such as {@code io.vertx.} or {@code
+   *     org.hibernate.}.
+   */
+  public synchronized void setFoldedStackTracePackages(
+      Collection<String> foldedStackTracePackages) {
+    var packages = List.copyOf(foldedStackTracePackages);
+    this.stackTraceRenderer = new StackTraceRenderer(maxStackTraceFrames, packages);
+    this.truncatedStackTraceRenderer = truncatedStackTraceRenderer(maxStackTraceFrames, packages);
+    this.foldedStackTracePackages = packages;
   }
 
   /**
-   * Formats the log message corresponding to {@code logRecord} including a stack trace of the
-   * {@link ExtLogRecord#getThrown()} exception if any.
+   * The time after which a repeated stack trace is rendered in full again.
+   *
+   * @return the window, or {@link Duration#ZERO} if stack traces are always rendered in full.
+   * @see #setRepeatedStackTraceWindow(Duration)
    */
-  private String formatMessageWithStackTrace(ExtLogRecord logRecord) {
-    var messageStringWriter = new StringWriter();
-    var messagePrintWriter = new PrintWriter(messageStringWriter);
-    messagePrintWriter.append(this.formatMessage(logRecord));
+  public Duration getRepeatedStackTraceWindow() {
+    return repeatedStackTraceWindow;
+  }
 
-    var logRecordThrown = logRecord.getThrown();
-    if (logRecordThrown != null) {
-      messagePrintWriter.println();
-      logRecordThrown.printStackTrace(messagePrintWriter);
+  /**
+   * Abbreviates stack traces that are repeated within a window.
+   *
+   * <p>Log entries with an exception carry a fingerprint of the exception in the {@code
+   * exceptionFingerprint} field. The fingerprint is computed from the classes and top stack frames
+   * of the exception and its causes, but not from their messages. The first occurrence of a
+   * fingerprint renders the stack trace in full and starts a window. Further occurrences within
+   * the window only render the first line of the stack trace and carry the number of occurrences
+   * in the window so far in the {@code exceptionOccurrences} field.
+   *
+   * <p>Fingerprints are tracked in a bounded table that evicts the least recently seen ones.
+   *
+   * <p>Defaults to {@link Duration#ZERO}, which means that stack traces are always rendered in
+   * full and no fingerprints are computed.
+   *
+   * @param repeatedStackTraceWindow the window, or {@link Duration#ZERO} to always render stack
+   *     traces in full.
+   */
+  public synchronized void setRepeatedStackTraceWindow(Duration repeatedStackTraceWindow) {
+    if (repeatedStackTraceWindow.isNegative()) {
+      throw new IllegalArgumentException(
+          "repeatedStackTraceWindow must not be negative: " + repeatedStackTraceWindow);
+    }
+
+    this.exceptionFingerprints =
+        repeatedStackTraceWindow.isZero()
+            ? null
+            : new ExceptionFingerprints(repeatedStackTraceWindow);
+    this.repeatedStackTraceWindow = repeatedStackTraceWindow;
+  }
+
+  /**
+   * The {@link TraceContextProvider} that supplies the trace context of log records.
+   *
+   * @return the current {@link TraceContextProvider}, or {@code null} if there is none.
+   * @see #setTraceContextProvider(TraceContextProvider)
+   */
+  public @Nullable TraceContextProvider getTraceContextProvider() {
+    return traceContextProvider;
+  }
+
+  /**
+   * Sets the {@link TraceContextProvider} that supplies the trace context of log records.
+   *
+   * <p>Defaults to none, in which case log entries do not carry a trace context.
+   *
+   * @param traceContextProvider the new {@link TraceContextProvider}, or {@code null} for none.
+   */
+  public void setTraceContextProvider(@Nullable TraceContextProvider traceContextProvider) {
+    this.traceContextProvider = traceContextProvider;
+  }
+
+  /**
+   * The Google Cloud project ID trace IDs are qualified with.
+   *
+   * @return the project ID, or {@code null} if trace IDs are not qualified.
+   * @see #setTraceProjectId(String)
+   */
+  public @Nullable String getTraceProjectId() {
+    return traceProjectId;
+  }
+
+  /**
+   * Sets the Google Cloud project ID trace IDs are qualified with.
+   *
+   * <p>Google Cloud Logging only associates log entries with traces if the trace field has the
+   * form {@code projects/PROJECT_ID/traces/TRACE_ID}. If a project ID is set, trace IDs supplied
+   * by the {@link TraceContextProvider} are qualified accordingly.
+   *
+   * <p>Defaults to none, in which case trace IDs are logged as they are.
+   *
+   * @param traceProjectId the project ID, or {@code null} for none.
+   */
+  public synchronized void setTraceProjectId(@Nullable String traceProjectId) {
+    if (traceProjectId == null) {
+      this.tracePrefix = null;
+    } else {
+      var b = new JsonBuffer(64);
+      b.appendJsonStringContent("projects/" + traceProjectId + "/traces/");
+      this.tracePrefix = b.toByteArray();
+    }
+    this.traceProjectId = traceProjectId;
+  }
+
+  /**
+   * The {@link VerboseLogging} filter that lets log records below a base level through on demand.
+   *
+   * @return the current {@link VerboseLogging} filter, or {@code null} if there is none.
+   * @see #setVerboseLogging(VerboseLogging)
+   */
+  public @Nullable VerboseLogging getVerboseLogging() {
+    return verboseLogging;
+  }
+
+  /**
+   * Sets a {@link VerboseLogging} filter that lets log records below a base level through only
+   * while verbose logging is switched on in the mapped diagnostic context.
+   *
+   * <p>The filter is applied before anything else happens to a log record, including the {@link
+   * #setFilter(Filter) filter}. {@link
+   * eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler} applies it even before
+   * a log record is buffered.
+   *
+   * <p>Defaults to none, in which case all log records are formatted.
+   *
+   * @param verboseLogging the new {@link VerboseLogging} filter, or {@code null} for none.
+   */
+  public void setVerboseLogging(@Nullable VerboseLogging verboseLogging) {
+    this.verboseLogging = verboseLogging;
+  }
+
+  /**
+   * The {@link Filter} that decides which log records are formatted.
+   *
+   * @return the current {@link Filter}, or {@code null} if there is none.
+   * @see #setFilter(Filter)
+   */
+  public @Nullable Filter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Sets a {@link Filter} that decides which log records are formatted.
+   *
+   * <p>The filter is applied before anything else happens to a log record. Log records that it
+   * rejects produce no output, so no provider is called and nothing is serialized for them.
+   *
+   * <p>Defaults to none, in which case all log records are formatted.
+   *
+   * @param filter the new {@link Filter}, or {@code null} for none.
+   */
+  public void setFilter(@Nullable Filter filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * The {@link DuplicateCollapser} that collapses consecutive duplicate log entries.
+   *
+   * @return the current {@link DuplicateCollapser}, or {@code null} if there is none.
+   * @see #setDuplicateCollapser(DuplicateCollapser)
+   */
+  public @Nullable DuplicateCollapser getDuplicateCollapser() {
+    return duplicateCollapser;
+  }
+
+  /**
+   * Sets the {@link DuplicateCollapser} that collapses consecutive duplicate log entries.
+   *
+   * <p>Duplicates are suppressed before any provider is called, and the formatter produces no
+   * output for them. See {@link DuplicateCollapser} for how they are reported. Duplicates are
+   * collapsed before the rate limit is applied, so they do not count towards it.
+   *
+   * <p>Collapsed log entries of loggers that go quiet are written by {@link #formatPending} or
+   * {@link #publishPending}.
+   *
+   * <p>Defaults to none, in which case all log entries are written.
+   *
+   * @param duplicateCollapser the new {@link DuplicateCollapser}, or {@code null} for none.
+   */
+  public void setDuplicateCollapser(@Nullable DuplicateCollapser duplicateCollapser) {
+    this.duplicateCollapser = duplicateCollapser;
+  }
+
+  /**
+   * The {@link AdaptiveDegradation} that sheds optional work under logging pressure.
+   *
+   * @return the current {@link AdaptiveDegradation}, or {@code null} if there is none.
+   * @see #setAdaptiveDegradation(AdaptiveDegradation)
+   */
+  public @Nullable AdaptiveDegradation getAdaptiveDegradation() {
+    return adaptiveDegradation;
+  }
+
+  /**
+   * Sets the {@link AdaptiveDegradation} that sheds optional work under logging pressure.
+   *
+   * <p>While log output is backed up, log entries are made cheaper to produce according to the
+   * current {@link AdaptiveDegradation.Stage} and carry the stage in the {@value
+   * AdaptiveDegradation#DEGRADATION_KEY} field. Once the pressure subsides, log entries are
+   * complete again.
+   *
+   * <p>Defaults to none, in which case log entries are always complete.
+   *
+   * @param adaptiveDegradation the new {@link AdaptiveDegradation}, or {@code null} for none.
+   */
+  public void setAdaptiveDegradation(@Nullable AdaptiveDegradation adaptiveDegradation) {
+    this.adaptiveDegradation = adaptiveDegradation;
+  }
+
+  /**
+   * The {@link RateLimiter} that limits the rate of log entries.
+   *
+   * @return the current {@link RateLimiter}, or {@code null} if there is none.
+   * @see #setRateLimiter(RateLimiter)
+   */
+  public @Nullable RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * Sets the {@link RateLimiter} that limits the rate of log entries.
+   *
+   * <p>Log records that exceed the rate are suppressed before any provider is called, and the
+   * formatter produces no output for them. See {@link RateLimiter} for how suppressed log entries
+   * are reported.
+   *
+   * <p>Summaries of suppressed log entries of loggers that go quiet are written by {@link
+   * #formatPending} or {@link #publishPending}.
+   *
+   * <p>Defaults to none, in which case all log entries are written.
+   *
+   * @param rateLimiter the new {@link RateLimiter}, or {@code null} for none.
+   */
+  public void setRateLimiter(@Nullable RateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  /**
+   * The {@link FormatterMetrics} that receive measurements of the work done by the formatter.
+   *
+   * @return the current {@link FormatterMetrics}, or {@code null} if there are none.
+   * @see #setMetrics(FormatterMetrics)
+   */
+  public @Nullable FormatterMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets the {@link FormatterMetrics} that receive measurements of the work done by the formatter:
+   * the log entries formatted and their sizes, the time spent formatting and calling providers,
+   * the stack traces rendered, and the log records dropped.
+   *
+   * <p>Defaults to none, in which case nothing is measured.
+   *
+   * @param metrics the new {@link FormatterMetrics}, or {@code null} for none.
+   */
+  public void setMetrics(@Nullable FormatterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Which log entries include the source location of the log statement.
+   *
+   * @return the current {@link SourceLocationMode}.
+   * @see #setSourceLocationMode(SourceLocationMode)
+   */
+  public SourceLocationMode getSourceLocationMode() {
+    return sourceLocationMode;
+  }
+
+  /**
+   * Sets which log entries include the source location of the log statement.
+   *
+   * <p>Determining the source location requires walking the stack of the logging thread, which is
+   * expensive. With {@link SourceLocationMode#NEVER}, {@link #isCallerCalculationRequired()}
+   * returns {@code false}, which tells asynchronous handlers not to calculate the caller either.
+   *
+   * <p>Defaults to {@link SourceLocationMode#ALWAYS}.
+   *
+   * @param sourceLocationMode the new {@link SourceLocationMode}.
+   */
+  public void setSourceLocationMode(SourceLocationMode sourceLocationMode) {
+    this.sourceLocationMode = sourceLocationMode;
+  }
+
+  @Override
+  public boolean isCallerCalculationRequired() {
+    return sourceLocationMode != SourceLocationMode.NEVER;
+  }
+
+  /**
+   * Whether the source location is included in log entries of a given level.
+   *
+   * <p>Handlers that pass log records on to another thread can use this to calculate the caller
+   * only for those log records that need it.
+   *
+   * <p>While the {@link AdaptiveDegradation} sheds the source location, no caller needs to be
+   * calculated.
+   *
+   * @param level the level of a log record.
+   * @return whether the caller of a log record of level {@code level} needs to be calculated.
+   */
+  public boolean isCallerCalculationRequired(Level level) {
+    var adaptiveDegradation = this.adaptiveDegradation;
+    if (adaptiveDegradation != null && adaptiveDegradation.getStage() != Stage.NONE) {
+      return false;
+    }
+
+    return isSourceLocationIncluded(level);
+  }
+
+  private boolean isSourceLocationIncluded(Level level) {
+    switch (sourceLocationMode) {
+      case ALWAYS:
+        return true;
+
+      case WARNING_AND_ABOVE:
+        return level.intValue() >= Level.WARNING.intValue();
+
+      case NEVER:
+      default:
+        return false;
     }
+  }
+
+  /** Which log entries include the source location of the log statement. */
+  public enum SourceLocationMode {
+
+    /** Include the source location in all log entries. */
+    ALWAYS,
+
+    /** Include the source location in log entries of level {@link Level#WARNING} and above. */
+    WARNING_AND_ABOVE,
 
-    messagePrintWriter.close();
-    return messageStringWriter.toString();
+    /** Never include the source location. */
+    NEVER,
   }
 
   /** Computes the Google Cloud Logging severity corresponding to a given {@link Level}. */
@@ -222,23 +981,57 @@ public class Formatter extends ExtFormatter {
     }
   }
 
+  /**
+   * Structures that are reused from log record to log record.
+   *
+   * <p>Together they make up all the state needed to format a log record, so that formatting does
+   * not allocate in the steady state. Each log record takes a {@link Scratch} from the pool for
+   * the duration of its formatting, which also covers providers that log themselves.
+   */
+  /** A log record that was held back, as passed to a handler by {@link #publishPending}. */
+  private static final class PendingLogRecord extends ExtLogRecord {
+
+    private static final long serialVersionUID = 1L;
+
+    private PendingLogRecord(ExtLogRecord original) {
+      super(original);
+    }
+  }
+
+  private static final class Scratch {
+
+    private final JsonBuffer buffer = new JsonBuffer();
+    private final LogEntry entry = new LogEntry();
+    private final ProviderContext providerContext = new ProviderContext();
+    private final TraceContext traceContext = new TraceContext();
+    private final SourceLocations.CallSite callSite = new SourceLocations.CallSite();
+  }
+
   /**
    * An implementation of {@link LabelProvider.Context} and {@link
    * StructuredParameterProvider.Context}.
+   *
+   * <p>Reused from log record to log record.
    */
-  private static class ProviderContext
+  private static final class ProviderContext
       implements LabelProvider.Context, StructuredParameterProvider.Context {
 
-    private final @Nullable String loggerName;
-    private final long sequenceNumber;
-    private final @Nullable String threadName;
+    private @Nullable String loggerName = null;
+    private long sequenceNumber = 0;
+    private @Nullable String threadName = null;
 
-    private ProviderContext(ExtLogRecord logRecord) {
+    private void set(ExtLogRecord logRecord) {
       loggerName = logRecord.getLoggerName();
       sequenceNumber = logRecord.getSequenceNumber();
       threadName = logRecord.getThreadName();
     }
 
+    private void clear() {
+      loggerName = null;
+      sequenceNumber = 0;
+      threadName = null;
+    }
+
     @Override
     public @Nullable String loggerName() {
       return loggerName;
@@ -0,0 +1,78 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+/**
+ * Receives measurements of the work done by a {@link Formatter}, typically to pass them on to a
+ * metrics library.
+ *
+ * <p>The methods are called on the thread that formats a log record, once or several times per
+ * log record. Implementations must be thread-safe and should not contend on shared state; striped
+ * counters such as {@link java.util.concurrent.atomic.LongAdder} are a good fit. They must not log.
+ *
+ * @see Formatter#setMetrics(FormatterMetrics)
+ */
+public interface FormatterMetrics {
+
+  /** Why a log record was not written. */
+  enum DropReason {
+
+    /**
+     * The log record was rejected by a {@link java.util.logging.Filter} or by {@link
+     * VerboseLogging}.
+     */
+    FILTERED,
+
+    /** The log record was left out by {@link AdaptiveDegradation.Stage#SAMPLED sampling}. */
+    SAMPLED,
+
+    /** The log record was a duplicate suppressed by a {@link DuplicateCollapser}. */
+    COLLAPSED,
+
+    /** The log record exceeded the rate of a {@link RateLimiter}. */
+    RATE_LIMITED,
+
+    /**
+     * The log record did not fit into the buffer of an {@link
+     * eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler}.
+     */
+    OVERFLOW,
+  }
+
+  /**
+   * Records a log entry that has been formatted.
+   *
+   * @param severity the Google Cloud Logging severity of the log entry.
+   * @param bytes the size of the formatted log entry in bytes, including the trailing newline.
+   */
+  void recordEntry(String severity, int bytes);
+
+  /**
+   * Records the time it took to format a log record.
+   *
+   * <p>Covers all log entries written for the log record, including collapsed duplicates and
+   * summaries of suppressed log records, as well as log records that are dropped.
+   *
+   * @param nanos the duration in nanoseconds.
+   */
+  void recordFormatLatency(long nanos);
+
+  /**
+   * Records the time it took to call the parameter and label providers for a log entry.
+   *
+   * @param nanos the duration in nanoseconds.
+   */
+  void recordProviderLatency(long nanos);
+
+  /** Records a stack trace that has been rendered, whether in full or truncated. */
+  void recordStackTrace();
+
+  /**
+   * Records a log record that has not been written.
+   *
+   * @param reason why the log record was dropped.
+   */
+  void recordDrop(DropReason reason);
+}
@@ -0,0 +1,416 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A growable, reusable byte buffer that JSON is serialized into as UTF-8.
+ *
+ * <p>Serializing straight to bytes avoids building an intermediate {@link String} that would have
+ * to be encoded again on its way to standard output.
+ *
+ * <p>As a {@link StructuredParameter.Writer}, the buffer writes each key–value pair as an object
+ * member followed by a comma. {@link LogEntry} relies on this, as the payload entries contributed
+ * by parameters are always followed by the fixed fields of the log entry.
+ */
+final class JsonBuffer implements StructuredParameter.Writer {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int ESCAPE_CHUNK_SIZE = 1024;
+  private static final int BULK_COPY_THRESHOLD = 16;
+
+  private static final byte[] HEX_DIGITS = {
+    '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  /**
+   * The escape sequence character for each ASCII character, or 0 if the character can be copied
+   * as is. Control characters without a short escape sequence map to {@code 'u'}.
+   */
+  private static final byte[] ESCAPES = new byte[0x80];
+
+  static {
+    for (var c = 0; c < 0x20; c++) {
+      ESCAPES[c] = 'u';
+    }
+    ESCAPES['"'] = '"';
+    ESCAPES['\\'] = '\\';
+    ESCAPES['\b'] = 'b';
+    ESCAPES['\f'] = 'f';
+    ESCAPES['\n'] = 'n';
+    ESCAPES['\r'] = 'r';
+    ESCAPES['\t'] = 't';
+  }
+
+  private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(UTF_8);
+
+  private byte[] bytes;
+  private int size;
+
+  JsonBuffer() {
+    this(INITIAL_CAPACITY);
+  }
+
+  JsonBuffer(int initialCapacity) {
+    bytes = new byte[initialCapacity];
+  }
+
+  /** Discards the contents of the buffer while keeping its storage for reuse. */
+  void reset() {
+    size = 0;
+  }
+
+  /** The number of bytes currently held by the buffer. */
+  int size() {
+    return size;
+  }
+
+  /** The number of bytes the buffer can hold without growing. */
+  int capacity() {
+    return bytes.length;
+  }
+
+  /**
+   * Discards the contents of the buffer and, if its storage has grown beyond {@code maxCapacity},
+   * replaces the storage with a new array of the initial capacity.
+   */
+  void trim(int maxCapacity) {
+    size = 0;
+    if (bytes.length > maxCapacity) {
+      bytes = new byte[Math.min(INITIAL_CAPACITY, maxCapacity)];
+    }
+  }
+
+  /** Writes the contents of the buffer to {@code out} in a single call. */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, size);
+  }
+
+  /** Copies the contents of the buffer into a new array. */
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, size);
+  }
+
+  /** Decodes the contents of the buffer into a {@link String}. */
+  @Override
+  public String toString() {
+    return new String(bytes, 0, size, UTF_8);
+  }
+
+  private void ensureCapacity(int additional) {
+    var required = size + additional;
+    if (required > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+    }
+  }
+
+  /** Appends an ASCII character. */
+  void append(char c) {
+    ensureCapacity(1);
+    bytes[size++] = (byte) c;
+  }
+
+  /** Appends a string that is known to consist of ASCII characters only. */
+  void appendAscii(String s) {
+    var length = s.length();
+    ensureCapacity(length);
+    for (var i = 0; i < length; i++) {
+      bytes[size++] = (byte) s.charAt(i);
+    }
+  }
+
+  /** Appends the decimal representation of {@code n}. */
+  void append(long n) {
+    if (n == Long.MIN_VALUE) {
+      append(MIN_LONG);
+      return;
+    }
+
+    ensureCapacity(20);
+
+    if (n < 0) {
+      bytes[size++] = '-';
+      n = -n;
+    }
+
+    var digits = 1;
+    for (var m = n; m >= 10; m /= 10) {
+      digits++;
+    }
+
+    var end = size + digits;
+    for (var i = end - 1; i >= size; i--) {
+      bytes[i] = (byte) ('0' + (n % 10));
+      n /= 10;
+    }
+    size = end;
+  }
+
+  /** Appends the 16-digit hexadecimal representation of {@code n}. */
+  void appendHex(long n) {
+    ensureCapacity(16);
+    for (var shift = 60; shift >= 0; shift -= 4) {
+      bytes[size++] = HEX_DIGITS[(int) (n >>> shift) & 0xf];
+    }
+  }
+
+  /**
+   * Appends the decimal representation of {@code d}.
+   *
+   * <p>The representation is the same as that of {@link BigDecimal#valueOf(double)}, which is what
+   * {@link jakarta.json.JsonNumber} uses. Integral values and values of moderate magnitude, which
+   * make up the bulk of logged numbers, do not take the detour through {@link BigDecimal}.
+   */
+  void append(double d) {
+    var abs = Math.abs(d);
+    if (abs < 1e7 && d == Math.rint(d)) {
+      append((long) d);
+      appendAscii(".0");
+    } else if (abs >= 1e-3 && abs < 1e7) {
+      appendAscii(Double.toString(d));
+    } else {
+      appendAscii(BigDecimal.valueOf(d).toString());
+    }
+  }
+
+  /** Appends raw, already encoded bytes. */
+  void append(byte[] fragment) {
+    ensureCapacity(fragment.length);
+    System.arraycopy(fragment, 0, bytes, size, fragment.length);
+    size += fragment.length;
+  }
+
+  /** Removes the last byte if it is a comma, such as the one following the last object member. */
+  void removeTrailingComma() {
+    if (size > 0 && bytes[size - 1] == ',') {
+      size--;
+    }
+  }
+
+  /** Appends {@code s} as a quoted and escaped JSON string. */
+  void appendJsonString(String s) {
+    append('"');
+    appendJsonStringContent(s);
+    append('"');
+  }
+
+  /**
+   * Appends {@code s} as the content of a JSON string, that is, escaped but without the
+   * surrounding quotation marks.
+   *
+   * <p>Most strings consist mostly of printable ASCII characters that need no escaping. Such runs
+   * are found with a table lookup per character and, if they are long enough, copied into the
+   * buffer in bulk. Only the characters in between are escaped or encoded one by one.
+   */
+  @SuppressWarnings("deprecation")
+  void appendJsonStringContent(String s) {
+    var length = s.length();
+    var i = 0;
+
+    while (i < length) {
+      // Each char takes at most 6 bytes (as a control character escape).  Reserve space chunk by
+      // chunk so that huge strings do not inflate the buffer to six times their size up front.
+      var chunkEnd = Math.min(length, i + ESCAPE_CHUNK_SIZE);
+      ensureCapacity((chunkEnd - i) * 6);
+
+      var bytes = this.bytes;
+      var size = this.size;
+
+      while (i < chunkEnd) {
+        var c = s.charAt(i);
+
+        if (c < 0x80) {
+          var escape = ESCAPES[c];
+
+          if (escape == 0) {
+            // Copy clean characters while looking for the end of the run.  Once the run turns out
+            // to be long, find its end first and then copy the rest of it in bulk.
+            var runStart = i;
+            bytes[size++] = (byte) c;
+            i++;
+            while (i < chunkEnd) {
+              var d = s.charAt(i);
+              if (d >= 0x80 || ESCAPES[d] != 0) {
+                break;
+              }
+              if (i - runStart == BULK_COPY_THRESHOLD) {
+                var runEnd = i + 1;
+                while (runEnd < chunkEnd) {
+                  var e = s.charAt(runEnd);
+                  if (e >= 0x80 || ESCAPES[e] != 0) {
+                    break;
+                  }
+                  runEnd++;
+                }
+                // Discards the high byte of each char, which is zero for ASCII.  For Latin-1
+                // strings, this is a plain array copy.
+                s.getBytes(i, runEnd, bytes, size);
+                size += runEnd - i;
+                i = runEnd;
+                break;
+              }
+              bytes[size++] = (byte) d;
+              i++;
+            }
+            continue;
+          }
+
+          bytes[size++] = '\\';
+          bytes[size++] = escape;
+          if (escape == 'u') {
+            bytes[size++] = '0';
+            bytes[size++] = '0';
+            bytes[size++] = HEX_DIGITS[(c >> 4) & 0xf];
+            bytes[size++] = HEX_DIGITS[c & 0xf];
+          }
+        } else if (c < 0x800) {
+          bytes[size++] = (byte) (0xc0 | (c >> 6));
+          bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < length
+            && Character.isLowSurrogate(s.charAt(i + 1))) {
+          var codePoint = Character.toCodePoint(c, s.charAt(++i));
+          bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          // Unpaired surrogates cannot be encoded.  Replace them the same way String#getBytes
+          // does.
+          bytes[size++] = '?';
+        } else {
+          bytes[size++] = (byte) (0xe0 | (c >> 12));
+          bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+
+        i++;
+      }
+
+      this.size = size;
+    }
+  }
+
+  /** Appends {@code value} as JSON. */
+  void appendJsonValue(JsonValue value) {
+    switch (value.getValueType()) {
+      case ARRAY:
+        append('[');
+        var array = value.asJsonArray();
+        for (var i = 0; i < array.size(); i++) {
+          if (i > 0) {
+            append(',');
+          }
+          appendJsonValue(array.get(i));
+        }
+        append(']');
+        break;
+
+      case OBJECT:
+        append('{');
+        var object = value.asJsonObject();
+        var first = true;
+        for (var entry : object.entrySet()) {
+          if (!first) {
+            append(',');
+          } else {
+            first = false;
+          }
+          appendJsonString(entry.getKey());
+          append(':');
+          appendJsonValue(entry.getValue());
+        }
+        append('}');
+        break;
+
+      case STRING:
+        appendJsonString(((JsonString) value).getString());
+        break;
+
+      case NUMBER:
+        appendAscii(value.toString());
+        break;
+
+      case TRUE:
+        appendAscii("true");
+        break;
+
+      case FALSE:
+        appendAscii("false");
+        break;
+
+      case NULL:
+        appendAscii("null");
+        break;
+    }
+  }
+
+  /** Appends an object member with a key rendered by {@link JsonKeys}, followed by a comma. */
+  void appendMember(byte[] key, String value) {
+    append(key);
+    appendJsonString(value);
+    append(',');
+  }
+
+  /** Appends an object member with a key rendered by {@link JsonKeys}, followed by a comma. */
+  void appendMember(byte[] key, long value) {
+    append(key);
+    append(value);
+    append(',');
+  }
+
+  /** Appends an object member with a key rendered by {@link JsonKeys}, followed by a comma. */
+  void appendMember(byte[] key, double value) {
+    append(key);
+    append(value);
+    append(',');
+  }
+
+  /** Appends an object member with a key rendered by {@link JsonKeys}, followed by a comma. */
+  void appendMember(byte[] key, boolean value) {
+    append(key);
+    appendAscii(value ? "true," : "false,");
+  }
+
+  /** Appends an object member with a key rendered by {@link JsonKeys}, followed by a comma. */
+  void appendMember(byte[] key, JsonValue value) {
+    append(key);
+    appendJsonValue(value);
+    append(',');
+  }
+
+  @Override
+  public void write(String key, String value) {
+    appendMember(JsonKeys.of(key), value);
+  }
+
+  @Override
+  public void write(String key, long value) {
+    appendMember(JsonKeys.of(key), value);
+  }
+
+  @Override
+  public void write(String key, double value) {
+    appendMember(JsonKeys.of(key), value);
+  }
+
+  @Override
+  public void write(String key, boolean value) {
+    appendMember(JsonKeys.of(key), value);
+  }
+
+  @Override
+  public void write(String key, JsonValue value) {
+    appendMember(JsonKeys.of(key), value);
+  }
+}
@@ -0,0 +1,44 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+/**
+ * Pre-rendered JSON object keys.
+ *
+ * <p>A key is rendered as a quoted and escaped JSON string followed by a colon, ready to be
+ * appended to a {@link JsonBuffer} as is.
+ *
+ * <p>Log entries tend to use the same small set of keys over and over, so rendered keys are cached.
+ * The cache is a {@link BoundedCache}, so keys that are generated dynamically do not crowd out the
+ * ones in use.
+ *
+ * <p>Rendered keys are shared and must not be modified.
+ */
+final class JsonKeys {
+
+  private static final int MAX_CACHED_KEYS = 1024;
+
+  private static final BoundedCache<String, byte[]> CACHE = new BoundedCache<>(MAX_CACHED_KEYS);
+
+  private JsonKeys() {}
+
+  /** Returns the rendered form of {@code key}, from the cache if possible. */
+  static byte[] of(String key) {
+    var rendered = CACHE.get(key);
+    if (rendered == null) {
+      rendered = render(key);
+      CACHE.put(key, rendered);
+    }
+    return rendered;
+  }
+
+  /** Renders {@code key} without consulting the cache. */
+  static byte[] render(String key) {
+    var b = new JsonBuffer(key.length() + 3);
+    b.appendJsonString(key);
+    b.append(':');
+    return b.toByteArray();
+  }
+}
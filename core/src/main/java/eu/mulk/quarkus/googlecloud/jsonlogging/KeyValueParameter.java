@@ -10,6 +10,7 @@ import jakarta.json.spi.JsonProvider;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Objects;
+import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 /**
@@ -19,6 +20,9 @@ import org.jspecify.annotations.Nullable;
  * {@code *f} family of logging functions on {@link org.jboss.logging.Logger}. For advanced use
  * cases, provide your own implementation of {@link StructuredParameter}.
  *
+ * <p>Strings, booleans, and primitive numbers are stored as they are and written directly to the
+ * log output. The corresponding {@link JsonValue} is only created when {@link #value()} is called.
+ *
  * <p><strong>Example:</strong>
  *
  * {@snippet :
@@ -44,13 +48,47 @@ public final class KeyValueParameter implements StructuredParameter {
   private static final JsonProvider JSON = JsonProvider.provider();
 
   private final String key;
-  private final JsonValue value;
+  private final byte[] jsonKey;
+  private final Type type;
+  private final long primitive;
+  private final @Nullable String string;
+  private @Nullable JsonValue value;
+
+  private KeyValueParameter(String key, Type type, long primitive) {
+    this.key = key;
+    this.jsonKey = JsonKeys.of(key);
+    this.type = type;
+    this.primitive = primitive;
+    this.string = null;
+  }
+
+  private KeyValueParameter(String key, String string) {
+    this.key = key;
+    this.jsonKey = JsonKeys.of(key);
+    this.type = Type.STRING;
+    this.primitive = 0;
+    this.string = string;
+  }
 
   private KeyValueParameter(String key, JsonValue value) {
     this.key = key;
+    this.jsonKey = JsonKeys.of(key);
+    this.type = Type.JSON;
+    this.primitive = 0;
+    this.string = null;
     this.value = value;
   }
 
+  /** The representation of the value part of a {@link KeyValueParameter}. */
+  private enum Type {
+    STRING,
+    INT,
+    LONG,
+    DOUBLE,
+    BOOLEAN,
+    JSON,
+  }
+
   /**
    * Creates a {@link KeyValueParameter} from a {@link String} value.
    *
@@ -61,7 +99,7 @@ public final class KeyValueParameter implements StructuredParameter {
    * @return the newly constructed parameter, ready to be passed to a logging function.
    */
   public static KeyValueParameter of(String key, String value) {
-    return new KeyValueParameter(key, JSON.createValue(value));
+    return new KeyValueParameter(key, Objects.requireNonNull(value, "value"));
   }
 
   /**
@@ -74,7 +112,7 @@ public final class KeyValueParameter implements StructuredParameter {
    * @return the newly constructed parameter, ready to be passed to a logging function.
    */
   public static KeyValueParameter of(String key, int value) {
-    return new KeyValueParameter(key, JSON.createValue(value));
+    return new KeyValueParameter(key, Type.INT, value);
   }
 
   /**
@@ -87,7 +125,7 @@ public final class KeyValueParameter implements StructuredParameter {
    * @return the newly constructed parameter, ready to be passed to a logging function.
    */
   public static KeyValueParameter of(String key, long value) {
-    return new KeyValueParameter(key, JSON.createValue(value));
+    return new KeyValueParameter(key, Type.LONG, value);
   }
 
   /**
@@ -98,9 +136,13 @@ public final class KeyValueParameter implements StructuredParameter {
    * @param key the key part of the key–value pair.
    * @param value the value part of the key–value pair.
    * @return the newly constructed parameter, ready to be passed to a logging function.
+   * @throws NumberFormatException if {@code value} is infinite or NaN.
    */
   public static KeyValueParameter of(String key, double value) {
-    return new KeyValueParameter(key, JSON.createValue(value));
+    if (!Double.isFinite(value)) {
+      throw new NumberFormatException("Infinite or NaN: " + value);
+    }
+    return new KeyValueParameter(key, Type.DOUBLE, Double.doubleToRawLongBits(value));
   }
 
   /**
@@ -139,12 +181,68 @@ public final class KeyValueParameter implements StructuredParameter {
    * @return the newly constructed parameter, ready to be passed to a logging function.
    */
   public static KeyValueParameter of(String key, boolean value) {
-    return new KeyValueParameter(key, value ? JsonValue.TRUE : JsonValue.FALSE);
+    return new KeyValueParameter(key, Type.BOOLEAN, value ? 1 : 0);
   }
 
   @Override
   public JsonObjectBuilder json() {
-    return JSON.createObjectBuilder().add(key, value);
+    return JSON.createObjectBuilder().add(key, value());
+  }
+
+  @Override
+  public void writeJson(Writer writer) {
+    switch (type) {
+      case STRING:
+        writer.write(key, (@NonNull String) string);
+        break;
+
+      case INT:
+      case LONG:
+        writer.write(key, primitive);
+        break;
+
+      case DOUBLE:
+        writer.write(key, Double.longBitsToDouble(primitive));
+        break;
+
+      case BOOLEAN:
+        writer.write(key, primitive != 0);
+        break;
+
+      case JSON:
+        writer.write(key, value());
+        break;
+    }
+  }
+
+  /**
+   * Appends the key–value pair to {@code b} using the pre-rendered key.
+   *
+   * <p>Equivalent to {@link #writeJson(Writer)}, but skips rendering the key.
+   */
+  void appendTo(JsonBuffer b) {
+    switch (type) {
+      case STRING:
+        b.appendMember(jsonKey, (@NonNull String) string);
+        break;
+
+      case INT:
+      case LONG:
+        b.appendMember(jsonKey, primitive);
+        break;
+
+      case DOUBLE:
+        b.appendMember(jsonKey, Double.longBitsToDouble(primitive));
+        break;
+
+      case BOOLEAN:
+        b.appendMember(jsonKey, primitive != 0);
+        break;
+
+      case JSON:
+        b.appendMember(jsonKey, value());
+        break;
+    }
   }
 
   /**
@@ -165,24 +263,82 @@ public final class KeyValueParameter implements StructuredParameter {
    * @return the value pairt of the key–value pair.
    */
   public JsonValue value() {
+    // Racy but benign: JsonValue instances are immutable, and creating one twice is harmless.
+    var value = this.value;
+    if (value == null) {
+      value = createValue();
+      this.value = value;
+    }
     return value;
   }
 
+  private JsonValue createValue() {
+    switch (type) {
+      case STRING:
+        return JSON.createValue((@NonNull String) string);
+
+      case INT:
+        return JSON.createValue((int) primitive);
+
+      case LONG:
+        return JSON.createValue(primitive);
+
+      case DOUBLE:
+        return JSON.createValue(Double.longBitsToDouble(primitive));
+
+      case BOOLEAN:
+        return primitive != 0 ? JsonValue.TRUE : JsonValue.FALSE;
+
+      case JSON:
+      default:
+        return (@NonNull JsonValue) value;
+    }
+  }
+
   @Override
   public boolean equals(@Nullable Object obj) {
     if (obj == this) return true;
     if (obj == null || obj.getClass() != this.getClass()) return false;
     var that = (KeyValueParameter) obj;
-    return Objects.equals(this.key, that.key) && Objects.equals(this.value, that.value);
+    if (!Objects.equals(this.key, that.key)) return false;
+
+    // Compare unboxed values directly so that no JsonValue is created, as log records are compared
+    // on the hot path by DuplicateCollapser.
+    if (this.type == that.type) {
+      switch (type) {
+        case STRING:
+          return Objects.equals(this.string, that.string);
+
+        case INT:
+        case LONG:
+        case BOOLEAN:
+          return this.primitive == that.primitive;
+
+        case DOUBLE:
+          return Double.longBitsToDouble(this.primitive) == Double.longBitsToDouble(that.primitive);
+
+        case JSON:
+        default:
+          break;
+      }
+    } else if (isIntegral(this.type) && isIntegral(that.type)) {
+      return this.primitive == that.primitive;
+    }
+
+    return Objects.equals(this.value(), that.value());
+  }
+
+  private static boolean isIntegral(Type type) {
+    return type == Type.INT || type == Type.LONG;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(key, value);
+    return Objects.hash(key, value());
   }
 
   @Override
   public String toString() {
-    return "KeyValueParameter[" + "key=" + key + ", " + "value=" + value + ']';
+    return "KeyValueParameter[" + "key=" + key + ", " + "value=" + value() + ']';
   }
 }
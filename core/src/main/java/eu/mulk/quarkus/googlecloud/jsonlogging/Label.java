@@ -37,10 +37,12 @@ public final class Label {
 
   private final String key;
   private final String value;
+  private final byte[] jsonKey;
 
   private Label(String key, String value) {
     this.key = key;
     this.value = value;
+    this.jsonKey = JsonKeys.of(key);
   }
 
   /**
@@ -78,6 +80,11 @@ public final class Label {
     return value;
   }
 
+  /** The key rendered by {@link JsonKeys}. */
+  byte[] jsonKey() {
+    return jsonKey;
+  }
+
   @Override
   public boolean equals(@Nullable Object obj) {
     if (obj == this) return true;
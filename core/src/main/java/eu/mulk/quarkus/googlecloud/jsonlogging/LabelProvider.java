@@ -68,6 +68,20 @@ public interface LabelProvider {
     return getLabels();
   }
 
+  /**
+   * The scope within which the result of {@link #getLabels(Context)} stays the same.
+   *
+   * <p>Providers that return labels that do not change for every log entry can declare a broader
+   * scope so that they are called less often and their labels are serialized only once per scope.
+   *
+   * <p>Defaults to {@link ProviderScope#RECORD}.
+   *
+   * @return the scope of this provider.
+   */
+  default ProviderScope getLabelScope() {
+    return ProviderScope.RECORD;
+  }
+
   /** Contextual data available to {@link #getLabels(Context)}. */
   interface Context extends ProviderContext {}
 }
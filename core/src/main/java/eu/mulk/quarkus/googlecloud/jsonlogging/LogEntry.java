@@ -4,11 +4,12 @@
 
 package eu.mulk.quarkus.googlecloud.jsonlogging;
 
-import jakarta.json.JsonString;
-import jakarta.json.JsonValue;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 /**
@@ -21,51 +22,194 @@ import org.jspecify.annotations.Nullable;
  * <p>A few of the fields are <a href="https://cloud.google.com/logging/docs/structured-logging">
  * treated specially</a> by the fluentd instance running in Google Kubernetes Engine. All other
  * fields end up in the jsonPayload field on the Google Cloud Logging side.
+ *
+ * <p>Instances are reused from log record to log record on the same thread so that formatting does
+ * not allocate in the steady state. Call {@link #clear()} after rendering.
  */
 final class LogEntry {
 
-  private final String message;
-  private final String severity;
-  private final Timestamp timestamp;
-  private final @Nullable String trace;
-  private final @Nullable String spanId;
-  private final @Nullable SourceLocation sourceLocation;
-  private final Map<String, String> labels;
-  private final List<StructuredParameter> parameters;
-  private final Map<String, String> mappedDiagnosticContext;
-  private final @Nullable String nestedDiagnosticContext;
-  private final @Nullable String type;
-  private final @Nullable String insertId;
-
-  LogEntry(
-      String message,
-      String severity,
-      Timestamp timestamp,
-      @Nullable String trace,
-      @Nullable String spanId,
-      @Nullable SourceLocation sourceLocation,
-      Map<String, String> labels,
-      List<StructuredParameter> parameters,
-      Map<String, String> mappedDiagnosticContext,
-      @Nullable String nestedDiagnosticContext,
-      @Nullable String type,
-      @Nullable String insertId) {
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private static final byte[] INSERT_ID_KEY = JsonKeys.render("logging.googleapis.com/insertId");
+  private static final byte[] NESTED_DIAGNOSTIC_CONTEXT_KEY =
+      JsonKeys.render("nestedDiagnosticContext");
+  private static final byte[] LABELS_KEY = JsonKeys.render("logging.googleapis.com/labels");
+  private static final byte[] TYPE_KEY = JsonKeys.render("@type");
+  private static final byte[] MESSAGE_KEY = JsonKeys.render("message");
+  private static final byte[] SEVERITY_KEY = JsonKeys.render("severity");
+  private static final byte[] TIMESTAMP_KEY = JsonKeys.render("timestamp");
+  private static final byte[] SECONDS_KEY = JsonKeys.render("seconds");
+  private static final byte[] NANOS_KEY = JsonKeys.render("nanos");
+  private static final byte[] EXCEPTION_FINGERPRINT_KEY = JsonKeys.render("exceptionFingerprint");
+  private static final byte[] EXCEPTION_OCCURRENCES_KEY = JsonKeys.render("exceptionOccurrences");
+
+  private static final int INITIAL_LABEL_CAPACITY = 8;
+
+  private final List<StructuredParameter> parameters = new ArrayList<>();
+  private final List<ScopedProviders.RenderedLabels> labelLayers = new ArrayList<>();
+  private @Nullable Label[] labels = new @Nullable Label[INITIAL_LABEL_CAPACITY];
+  private int labelCount = 0;
+
+  private String message = "";
+  private @Nullable Throwable thrown = null;
+  private StackTraceRenderer stackTraceRenderer = StackTraceRenderer.FULL;
+  private String severity = "";
+  private @Nullable String type = null;
+  private long timestampSeconds = 0;
+  private int timestampNanos = 0;
+  private @Nullable TraceContext traceContext = null;
+  private byte @Nullable [] sourceLocation = null;
+  private Map<String, String> mappedDiagnosticContext = Map.of();
+  private @Nullable String nestedDiagnosticContext = null;
+  private @Nullable String insertId = null;
+  private long exceptionFingerprint = 0;
+  private long exceptionOccurrences = 0;
+
+  /**
+   * Sets the message of the log entry.
+   *
+   * @param message the formatted message.
+   * @param thrown the throwable whose stack trace is appended to the message, if any.
+   * @param stackTraceRenderer renders the stack trace of {@code thrown}.
+   */
+  void setMessage(
+      String message, @Nullable Throwable thrown, StackTraceRenderer stackTraceRenderer) {
     this.message = message;
+    this.thrown = thrown;
+    this.stackTraceRenderer = stackTraceRenderer;
+  }
+
+  /**
+   * Sets the severity of the log entry.
+   *
+   * @param severity the Google Cloud Logging severity.
+   * @param type the {@code @type} of the log entry, if any.
+   */
+  void setSeverity(String severity, @Nullable String type) {
     this.severity = severity;
-    this.timestamp = timestamp;
-    this.trace = trace;
-    this.spanId = spanId;
+    this.type = type;
+  }
+
+  void setTimestamp(Instant timestamp) {
+    this.timestampSeconds = timestamp.getEpochSecond();
+    this.timestampNanos = timestamp.getNano();
+  }
+
+  void setTraceContext(@Nullable TraceContext traceContext) {
+    this.traceContext = traceContext;
+  }
+
+  /** Sets the rendered source location as produced by {@link SourceLocations}. */
+  void setSourceLocation(byte @Nullable [] sourceLocation) {
     this.sourceLocation = sourceLocation;
-    this.labels = labels;
-    this.parameters = parameters;
+  }
+
+  void setDiagnosticContexts(
+      Map<String, String> mappedDiagnosticContext, @Nullable String nestedDiagnosticContext) {
     this.mappedDiagnosticContext = mappedDiagnosticContext;
     this.nestedDiagnosticContext = nestedDiagnosticContext;
-    this.type = type;
+  }
+
+  void setInsertId(@Nullable String insertId) {
     this.insertId = insertId;
   }
 
+  /**
+   * Sets the fingerprint of the throwable of the log entry as computed by {@link
+   * ExceptionFingerprints}.
+   *
+   * @param fingerprint the fingerprint of the throwable.
+   * @param occurrences the number of occurrences of the fingerprint in its current window. If
+   *     greater than 1, the stack trace of the throwable is abbreviated to its first line.
+   */
+  void setExceptionFingerprint(long fingerprint, long occurrences) {
+    this.exceptionFingerprint = fingerprint;
+    this.exceptionOccurrences = occurrences;
+  }
+
+  void addParameter(StructuredParameter parameter) {
+    parameters.add(parameter);
+  }
+
+  /** Adds the pre-rendered labels of a provider scope. Broader scopes must be added first. */
+  void addLabelLayer(ScopedProviders.RenderedLabels labelLayer) {
+    labelLayers.add(labelLayer);
+  }
+
+  /**
+   * Adds a label, replacing any label with the same key that was added before.
+   *
+   * <p>Labels are kept sorted by key in a flat array, which is also the order they are rendered
+   * in.
+   */
+  void putLabel(Label label) {
+    var index = labelIndex(label.key());
+    if (index >= 0) {
+      labels[index] = label;
+      return;
+    }
+
+    var insertionPoint = -(index + 1);
+    if (labelCount == labels.length) {
+      labels = Arrays.copyOf(labels, labelCount * 2);
+    }
+    System.arraycopy(
+        labels, insertionPoint, labels, insertionPoint + 1, labelCount - insertionPoint);
+    labels[insertionPoint] = label;
+    labelCount++;
+  }
+
+  /**
+   * Finds the label with key {@code key}.
+   *
+   * @return the index of the label, or {@code -(insertionPoint + 1)} if there is none.
+   */
+  private int labelIndex(String key) {
+    var low = 0;
+    var high = labelCount - 1;
+    while (low <= high) {
+      var middle = (low + high) >>> 1;
+      var comparison = ((@NonNull Label) labels[middle]).key().compareTo(key);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Drops all references to the current log record so that the entry can be reused. */
+  void clear() {
+    parameters.clear();
+    labelLayers.clear();
+    Arrays.fill(labels, 0, labelCount, null);
+    labelCount = 0;
+
+    message = "";
+    thrown = null;
+    stackTraceRenderer = StackTraceRenderer.FULL;
+    severity = "";
+    type = null;
+    timestampSeconds = 0;
+    timestampNanos = 0;
+    traceContext = null;
+    sourceLocation = null;
+    mappedDiagnosticContext = Map.of();
+    nestedDiagnosticContext = null;
+    insertId = null;
+    exceptionFingerprint = 0;
+    exceptionOccurrences = 0;
+  }
+
   static final class SourceLocation {
 
+    private static final byte[] FILE_KEY = JsonKeys.render("file");
+    private static final byte[] LINE_KEY = JsonKeys.render("line");
+    private static final byte[] FUNCTION_KEY = JsonKeys.render("function");
+
     private final @Nullable String file;
     private final @Nullable String line;
     private final @Nullable String function;
@@ -76,241 +220,154 @@ final class LogEntry {
       this.function = function;
     }
 
-    void json(StringBuilder b) {
+    void json(JsonBuffer b) {
       var commaNeeded = false;
 
       if (file != null) {
-        b.append("\"file\":");
-        appendJsonString(b, file);
+        b.append(FILE_KEY);
+        b.appendJsonString(file);
         commaNeeded = true;
       }
 
       if (line != null) {
         if (commaNeeded) {
-          b.append(",");
+          b.append(',');
         }
-        b.append("\"line\":");
-        appendJsonString(b, line);
+        b.append(LINE_KEY);
+        b.appendJsonString(line);
         commaNeeded = true;
       }
 
       if (function != null) {
         if (commaNeeded) {
-          b.append(",");
+          b.append(',');
         }
-        b.append("\"function\":");
-        appendJsonString(b, function);
+        b.append(FUNCTION_KEY);
+        b.appendJsonString(function);
       }
     }
   }
 
-  static final class Timestamp {
-
-    private final long seconds;
-    private final int nanos;
-
-    Timestamp(long seconds, int nanos) {
-      this.seconds = seconds;
-      this.nanos = nanos;
-    }
-
-    Timestamp(Instant t) {
-      this(t.getEpochSecond(), t.getNano());
-    }
-
-    void json(StringBuilder b) {
-      b.append("\"seconds\":");
-      b.append(seconds);
-      b.append(",\"nanos\":");
-      b.append(nanos);
-    }
-  }
-
-  void json(StringBuilder b) {
+  void json(JsonBuffer b) {
 
     if (insertId != null) {
-      b.append("\"logging.googleapis.com/insertId\":");
-      appendJsonString(b, insertId);
-      b.append(",");
-    }
-
-    if (trace != null) {
-      b.append("\"logging.googleapis.com/trace\":");
-      appendJsonString(b, trace);
-      b.append(",");
+      b.appendMember(INSERT_ID_KEY, insertId);
     }
 
-    if (spanId != null) {
-      b.append("\"logging.googleapis.com/spanId\":");
-      appendJsonString(b, spanId);
-      b.append(",");
+    if (traceContext != null) {
+      traceContext.json(b);
     }
 
     if (nestedDiagnosticContext != null && !nestedDiagnosticContext.isEmpty()) {
-      b.append("\"nestedDiagnosticContext\":");
-      appendJsonString(b, nestedDiagnosticContext);
-      b.append(",");
+      b.appendMember(NESTED_DIAGNOSTIC_CONTEXT_KEY, nestedDiagnosticContext);
     }
 
-    if (!labels.isEmpty()) {
-      b.append("\"logging.googleapis.com/labels\":{");
+    if (labelCount > 0 || !labelLayers.isEmpty()) {
+      b.append(LABELS_KEY);
+      b.append('{');
 
-      var first = true;
-      for (var entry : labels.entrySet()) {
-        if (!first) {
-          b.append(",");
+      for (var i = 0; i < labelLayers.size(); i++) {
+        var layer = labelLayers.get(i);
+        var layerLabels = layer.labelArray();
+        if (!isOverridden(layerLabels, i + 1)) {
+          b.append(layer.fragment());
         } else {
-          first = false;
+          for (var label : layerLabels) {
+            if (!isOverridden(label.key(), i + 1)) {
+              b.appendMember(label.jsonKey(), label.value());
+            }
+          }
         }
+      }
 
-        appendJsonString(b, entry.getKey());
-        b.append(":");
-        appendJsonString(b, entry.getValue());
+      for (var i = 0; i < labelCount; i++) {
+        var label = (@NonNull Label) labels[i];
+        b.appendMember(label.jsonKey(), label.value());
       }
 
-      b.append("},");
+      b.removeTrailingComma();
+      b.appendAscii("},");
     }
 
-    for (var entry : mappedDiagnosticContext.entrySet()) {
-      appendJsonString(b, entry.getKey());
-      b.append(":");
-      appendJsonString(b, entry.getValue());
-      b.append(",");
+    if (!mappedDiagnosticContext.isEmpty()) {
+      for (var entry : mappedDiagnosticContext.entrySet()) {
+        var value = entry.getValue();
+        if (value != null) {
+          b.appendMember(JsonKeys.of(entry.getKey()), value);
+        }
+      }
     }
 
-    for (var parameter : parameters) {
-      var jsonObject = parameter.json().build();
-      jsonObject.forEach(
-          (key, value) -> {
-            appendJsonString(b, key);
-            b.append(":");
-            appendJsonObject(b, value);
-            b.append(",");
-          });
+    for (var i = 0; i < parameters.size(); i++) {
+      var parameter = parameters.get(i);
+      if (parameter instanceof ScopedProviders.RenderedParameter) {
+        b.append(((ScopedProviders.RenderedParameter) parameter).fragment());
+      } else if (parameter instanceof KeyValueParameter) {
+        ((KeyValueParameter) parameter).appendTo(b);
+      } else {
+        parameter.writeJson(b);
+      }
     }
 
     if (type != null) {
-      b.append("\"@type\":");
-      appendJsonString(b, type);
-      b.append(",");
+      b.appendMember(TYPE_KEY, type);
     }
 
     if (sourceLocation != null) {
-      b.append("\"logging.googleapis.com/sourceLocation\":{");
-      sourceLocation.json(b);
-      b.append("},");
+      b.append(sourceLocation);
     }
 
-    b.append("\"message\":");
-    appendJsonString(b, message);
-
-    b.append(",\"severity\":");
-    appendJsonString(b, severity);
+    if (exceptionOccurrences > 0) {
+      b.append(EXCEPTION_FINGERPRINT_KEY);
+      b.append('"');
+      b.appendHex(exceptionFingerprint);
+      b.appendAscii("\",");
+      b.appendMember(EXCEPTION_OCCURRENCES_KEY, exceptionOccurrences);
+    }
 
-    b.append(",\"timestamp\":{");
-    timestamp.json(b);
-    b.append("}");
+    b.append(MESSAGE_KEY);
+    b.append('"');
+    b.appendJsonStringContent(message);
+    if (thrown != null) {
+      b.appendJsonStringContent(LINE_SEPARATOR);
+      if (exceptionOccurrences > 1) {
+        b.appendJsonStringContent(String.valueOf(thrown));
+      } else {
+        stackTraceRenderer.appendStackTrace(b, thrown);
+      }
+    }
+    b.appendAscii("\",");
+    b.append(SEVERITY_KEY);
+    b.appendJsonString(severity);
+    b.append(',');
+
+    b.append(TIMESTAMP_KEY);
+    b.append('{');
+    b.append(SECONDS_KEY);
+    b.append(timestampSeconds);
+    b.append(',');
+    b.append(NANOS_KEY);
+    b.append(timestampNanos);
+    b.append('}');
   }
 
-  private static void appendJsonObject(StringBuilder b, JsonValue value) {
-    switch (value.getValueType()) {
-      case ARRAY:
-        b.append("[");
-        var array = value.asJsonArray();
-        for (var i = 0; i < array.size(); i++) {
-          if (i > 0) {
-            b.append(",");
-          }
-          appendJsonObject(b, array.get(i));
-        }
-        b.append("]");
-        break;
-
-      case OBJECT:
-        b.append("{");
-        var object = value.asJsonObject();
-        var first = true;
-        for (var entry : object.entrySet()) {
-          if (!first) {
-            b.append(",");
-          } else {
-            first = false;
-          }
-          appendJsonString(b, entry.getKey());
-          b.append(":");
-          appendJsonObject(b, entry.getValue());
-        }
-        b.append("}");
-        break;
-
-      case STRING:
-        appendJsonString(b, ((JsonString) value).getString());
-        break;
-
-      case NUMBER:
-        b.append(value);
-        break;
-
-      case TRUE:
-        b.append("true");
-        break;
-
-      case FALSE:
-        b.append("false");
-        break;
-
-      case NULL:
-        b.append("null");
-        break;
+  /** Whether any of {@code layerLabels} is overridden by a label from a narrower layer. */
+  private boolean isOverridden(Label[] layerLabels, int firstNarrowerLayer) {
+    for (var label : layerLabels) {
+      if (isOverridden(label.key(), firstNarrowerLayer)) {
+        return true;
+      }
     }
+    return false;
   }
 
-  private static void appendJsonString(StringBuilder b, String s) {
-    b.append('"');
-
-    for (var i = 0; i < s.length(); i++) {
-      var c = s.charAt(i);
-
-      switch (c) {
-        case '"':
-          b.append("\\\"");
-          break;
-
-        case '\\':
-          b.append("\\\\");
-          break;
-
-        case '\b':
-          b.append("\\b");
-          break;
-
-        case '\f':
-          b.append("\\f");
-          break;
-
-        case '\n':
-          b.append("\\n");
-          break;
-
-        case '\r':
-          b.append("\\r");
-          break;
-
-        case '\t':
-          b.append("\\t");
-          break;
-
-        default:
-          if (c < 0x20) {
-            b.append("\\u00");
-            b.append(Character.forDigit((c >> 4) & 0xf, 16));
-            b.append(Character.forDigit(c & 0xf, 16));
-          } else {
-            b.append(c);
-          }
+  /** Whether a label with key {@code key} is supplied by a narrower layer. */
+  private boolean isOverridden(String key, int firstNarrowerLayer) {
+    for (var i = firstNarrowerLayer; i < labelLayers.size(); i++) {
+      if (labelLayers.get(i).labels().containsKey(key)) {
+        return true;
       }
     }
-
-    b.append('"');
+    return labelIndex(key) >= 0;
   }
 }
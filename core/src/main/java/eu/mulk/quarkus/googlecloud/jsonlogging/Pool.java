@@ -0,0 +1,97 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A bounded, lock-free pool of reusable objects.
+ *
+ * <p>Unlike a {@link ThreadLocal}, the pool does not keep an object per thread, so it stays small
+ * no matter how many threads there are, which matters for virtual threads.
+ *
+ * <p>Each thread starts looking for a pooled object at a slot derived from its ID and probes a
+ * small window of slots from there. A thread that acquires and releases objects one at a time
+ * therefore tends to get its own object back, and threads running in parallel tend not to contend
+ * for the same slots. If the window holds no object, {@link #acquire()} creates one; if it has no
+ * free slot, {@link #release(Object)} drops the object.
+ *
+ * @param <T> the type of the pooled objects.
+ */
+final class Pool<T> {
+
+  private static final int PROBE_WINDOW = 8;
+
+  private final AtomicReferenceArray<@Nullable T> slots;
+  private final Supplier<T> factory;
+  private final int probeWindow;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructs an empty {@link Pool}.
+   *
+   * @param capacity the maximum number of objects kept in the pool.
+   * @param factory creates objects when the pool has none to hand out.
+   */
+  Pool(int capacity, Supplier<T> factory) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.factory = factory;
+    this.probeWindow = Math.min(capacity, PROBE_WINDOW);
+  }
+
+  /** Takes an object out of the pool or creates a new one. */
+  T acquire() {
+    var capacity = slots.length();
+    var start = homeSlot(capacity);
+    for (var i = 0; i < probeWindow; i++) {
+      var index = (start + i) % capacity;
+      var object = slots.get(index);
+      if (object != null && slots.compareAndSet(index, object, null)) {
+        hits.increment();
+        return object;
+      }
+    }
+
+    misses.increment();
+    return factory.get();
+  }
+
+  /** Puts an object back into the pool, or drops it if the pool is full. */
+  void release(T object) {
+    var capacity = slots.length();
+    var start = homeSlot(capacity);
+    for (var i = 0; i < probeWindow; i++) {
+      var index = (start + i) % capacity;
+      if (slots.get(index) == null && slots.compareAndSet(index, null, object)) {
+        return;
+      }
+    }
+  }
+
+  /** The number of calls to {@link #acquire()} that were served from the pool. */
+  long hits() {
+    return hits.sum();
+  }
+
+  /** The number of calls to {@link #acquire()} that had to create an object. */
+  long misses() {
+    return misses.sum();
+  }
+
+  private static int homeSlot(int capacity) {
+    // Spread consecutive thread IDs over the slots.
+    var hash = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32);
+    return (hash & Integer.MAX_VALUE) % capacity;
+  }
+}
@@ -12,6 +12,9 @@ import org.jspecify.annotations.Nullable;
  *
  * <p>Provides access to information carried by the {@link ExtLogRecord} that is being formatted and
  * that is not taken care of by {@link Formatter} by default.
+ *
+ * <p>A {@link ProviderContext} is only valid during the call it is passed to. The {@link Formatter}
+ * reuses it for subsequent log records, so it must not be retained.
  */
 public interface ProviderContext {
 
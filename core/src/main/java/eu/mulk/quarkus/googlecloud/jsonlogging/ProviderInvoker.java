@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.Collection;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Calls {@link StructuredParameterProvider}s and {@link LabelProvider}s of known classes through
+ * their concrete types.
+ *
+ * <p>The {@link Formatter} calls the providers of {@link ProviderScope#RECORD} scope for each log
+ * entry. Going through the provider interfaces, all providers share the same call site, which the
+ * JIT compiler cannot inline once more than two provider classes pass through it. A {@link
+ * ProviderInvoker} assigns each known provider class a <em>slot</em> and gives each slot a call
+ * site of its own, which only ever sees a single class.
+ *
+ * <p>Implementations are not normally written by hand. The Quarkus extension generates one at
+ * build time from the provider beans of the application and {@linkplain
+ * Formatter#setProviderInvoker registers} it with the {@link Formatter}.
+ */
+public interface ProviderInvoker {
+
+  /**
+   * Finds the slot of a {@link StructuredParameterProvider}.
+   *
+   * @param provider a provider.
+   * @return the slot of the class of {@code provider}, or -1 if the class is not known.
+   */
+  int parameterSlotOf(StructuredParameterProvider provider);
+
+  /**
+   * Calls {@link StructuredParameterProvider#getParameter(StructuredParameterProvider.Context)}.
+   *
+   * @param slot the slot of {@code provider} as returned by {@link #parameterSlotOf}.
+   * @param provider the provider to call.
+   * @param context the context to pass to {@code provider}.
+   * @return the result of {@code provider}.
+   */
+  @Nullable
+  StructuredParameter getParameter(
+      int slot, StructuredParameterProvider provider, StructuredParameterProvider.Context context);
+
+  /**
+   * Finds the slot of a {@link LabelProvider}.
+   *
+   * @param provider a provider.
+   * @return the slot of the class of {@code provider}, or -1 if the class is not known.
+   */
+  int labelSlotOf(LabelProvider provider);
+
+  /**
+   * Calls {@link LabelProvider#getLabels(LabelProvider.Context)}.
+   *
+   * @param slot the slot of {@code provider} as returned by {@link #labelSlotOf}.
+   * @param provider the provider to call.
+   * @param context the context to pass to {@code provider}.
+   * @return the result of {@code provider}.
+   */
+  @Nullable
+  Collection<Label> getLabels(int slot, LabelProvider provider, LabelProvider.Context context);
+}
@@ -0,0 +1,59 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+/**
+ * The scope within which the result of a {@link StructuredParameterProvider} or {@link
+ * LabelProvider} stays the same.
+ *
+ * <p>The {@link Formatter} calls a provider once per scope and reuses the serialized result for all
+ * log entries within that scope. Results are therefore captured as they are at the time of the
+ * call; a {@link StructuredParameter} that changes its content later is not reflected in log
+ * entries.
+ *
+ * <p>If more than one provider supplies a {@link Label} with the same key, the label from the
+ * provider with the narrower scope takes precedence. {@link Label}s passed as log record parameters
+ * always take precedence over those supplied by providers.
+ *
+ * @see StructuredParameterProvider#getParameterScope()
+ * @see LabelProvider#getLabelScope()
+ */
+public enum ProviderScope {
+
+  /**
+   * The provider returns the same result for the lifetime of the process, e.g. the version of the
+   * service or the region it runs in.
+   *
+   * <p>The provider is called once, with the {@link ProviderContext} of the first log record that
+   * is formatted.
+   */
+  STATIC,
+
+  /**
+   * The result of the provider depends only on {@link ProviderContext#loggerName()}.
+   *
+   * <p>The provider is called once per logger.
+   */
+  LOGGER,
+
+  /**
+   * The result of the provider depends only on the thread that logs.
+   *
+   * <p>The provider is called once per thread and {@link Formatter}. Note that a thread may format
+   * log records logged by another thread if the handler is asynchronous.
+   *
+   * <p>Virtual threads are usually created per task, so caching results for them gains nothing.
+   * On a virtual thread, the provider is called for every log record, as if its scope were {@link
+   * #RECORD}.
+   */
+  THREAD,
+
+  /**
+   * The result of the provider may differ from log record to log record.
+   *
+   * <p>The provider is called for every log record. This is the default.
+   */
+  RECORD,
+}
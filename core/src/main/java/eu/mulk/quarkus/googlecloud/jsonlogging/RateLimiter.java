@@ -0,0 +1,281 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Limits the rate of log entries per logger or per call site.
+ *
+ * <p>Each key, that is, each logger or call site, has a token bucket per configured level. A
+ * bucket holds up to one second's worth of log entries and refills at the configured rate. Log
+ * records that find their bucket empty are suppressed before any provider is called and before
+ * anything is serialized.
+ *
+ * <p>Once a key's bucket has refilled enough to let a log record through again, a summary entry
+ * stating the number of suppressed entries under the {@value #SUPPRESSED_ENTRIES_KEY} key is
+ * written right before it. If the key does not log again, the summary entry is written by {@link
+ * Formatter#formatPending} or {@link Formatter#publishPending} once the bucket has refilled.
+ *
+ * <p>The buckets are lock-free. The number of keys with buckets of their own is bounded; log
+ * records of keys beyond that share a single set of buckets.
+ *
+ * @see Formatter#setRateLimiter(RateLimiter)
+ */
+public final class RateLimiter {
+
+  /** The key under which the number of suppressed log entries is reported. */
+  public static final String SUPPRESSED_ENTRIES_KEY = "suppressedLogEntries";
+
+  private static final int MAX_KEYS = 4096;
+
+  private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** What log records share a token bucket. */
+  public enum KeyMode {
+
+    /** Log records of the same logger share a bucket. */
+    LOGGER,
+
+    /**
+     * Log records from the same call site share a bucket.
+     *
+     * <p>The call site is only used if the caller of a log record is calculated anyway, that is,
+     * if its source location is included in the log entry. Other log records share a bucket per
+     * logger, so the rate limiter never causes a stack walk of its own.
+     */
+    CALL_SITE,
+  }
+
+  private final KeyMode keyMode;
+  private final Level[] bandLevels;
+  private final int[] levels;
+  private final long[] intervalNanos;
+
+  private final ConcurrentHashMap<Object, Bucket[]> buckets = new ConcurrentHashMap<>();
+  private final Bucket[] overflowBuckets;
+
+  /**
+   * Constructs a {@link RateLimiter}.
+   *
+   * <p>Each entry of {@code entriesPerSecond} applies to log records of its level and above, up to
+   * the next level that has an entry of its own. Log records below all configured levels are not
+   * limited.
+   *
+   * @param keyMode what log records share a token bucket.
+   * @param entriesPerSecond the maximum number of log entries per second and key, by level.
+   */
+  public RateLimiter(KeyMode keyMode, Map<? extends Level, Integer> entriesPerSecond) {
+    this.keyMode = keyMode;
+
+    this.bandLevels =
+        entriesPerSecond.keySet().stream()
+            .sorted(Comparator.comparingInt(Level::intValue))
+            .toArray(Level[]::new);
+    this.levels = Arrays.stream(bandLevels).mapToInt(Level::intValue).toArray();
+    this.intervalNanos = new long[levels.length];
+
+    for (var entry : entriesPerSecond.entrySet()) {
+      var rate = entry.getValue();
+      if (rate <= 0) {
+        throw new IllegalArgumentException(
+            "rate for level " + entry.getKey() + " must be positive: " + rate);
+      }
+
+      var i = bandOf(entry.getKey().intValue());
+      intervalNanos[i] = Math.max(1, BURST_NANOS / rate);
+    }
+
+    this.overflowBuckets = newBuckets(null);
+  }
+
+  /**
+   * What log records share a token bucket.
+   *
+   * @return the {@link KeyMode}.
+   */
+  public KeyMode getKeyMode() {
+    return keyMode;
+  }
+
+  /**
+   * Takes a token for a log record.
+   *
+   * @param logRecord the log record that is about to be formatted.
+   * @param probe a scratch {@link SourceLocations.CallSite} used to look up buckets without
+   *     allocating.
+   * @param callerCalculated whether the caller of the log record is calculated anyway.
+   * @return -1 if the log record is to be suppressed; otherwise, the number of log entries that
+   *     were suppressed since the last one that was let through.
+   */
+  long admit(ExtLogRecord logRecord, SourceLocations.CallSite probe, boolean callerCalculated) {
+    var band = bandOf(logRecord.getLevel().intValue());
+    if (band < 0) {
+      return 0;
+    }
+
+    var bucket = bucketsOf(logRecord, probe, callerCalculated)[band];
+    var now = System.nanoTime();
+    if (!bucket.tryAcquire(now, intervalNanos[band])) {
+      bucket.suppressed.incrementAndGet();
+      return -1;
+    }
+
+    return bucket.suppressed.get() == 0 ? 0 : bucket.suppressed.getAndSet(0);
+  }
+
+  /**
+   * Reports the log entries suppressed under the keys that are not suppressing log entries anymore.
+   *
+   * @param all whether to report the log entries suppressed under all keys, including those that
+   *     are still suppressing log entries.
+   * @param summaries receives the summary entries.
+   */
+  void flush(boolean all, Collection<ExtLogRecord> summaries) {
+    var now = System.nanoTime();
+    for (var keyBuckets : buckets.values()) {
+      flush(keyBuckets, now, all, summaries);
+    }
+    flush(overflowBuckets, now, all, summaries);
+  }
+
+  private void flush(
+      Bucket[] keyBuckets, long now, boolean all, Collection<ExtLogRecord> summaries) {
+    for (var band = 0; band < keyBuckets.length; band++) {
+      var bucket = keyBuckets[band];
+      if (bucket.suppressed.get() == 0 || (!all && !bucket.hasToken(now, intervalNanos[band]))) {
+        continue;
+      }
+
+      var suppressed = bucket.suppressed.getAndSet(0);
+      if (suppressed > 0) {
+        summaries.add(summaryOf(bandLevels[band], bucket.loggerName, suppressed));
+      }
+    }
+  }
+
+  /**
+   * Creates the summary entry written before the first log entry let through after {@code
+   * suppressed} log entries of the same key were suppressed.
+   */
+  ExtLogRecord summaryOf(ExtLogRecord logRecord, long suppressed) {
+    return summaryOf(logRecord.getLevel(), logRecord.getLoggerName(), suppressed);
+  }
+
+  private static ExtLogRecord summaryOf(Level level, @Nullable String loggerName, long suppressed) {
+    var summary =
+        new ExtLogRecord(
+            level,
+            String.format("Suppressed %d similar log entries.", suppressed),
+            ExtLogRecord.FormatStyle.NO_FORMAT,
+            RateLimiter.class.getName());
+    summary.setLoggerName(loggerName);
+    summary.setParameters(new Object[] {KeyValueParameter.of(SUPPRESSED_ENTRIES_KEY, suppressed)});
+    summary.disableCallerCalculation();
+    return summary;
+  }
+
+  private int bandOf(int level) {
+    var band = -1;
+    for (var i = 0; i < levels.length && levels[i] <= level; i++) {
+      band = i;
+    }
+    return band;
+  }
+
+  private Bucket[] bucketsOf(
+      ExtLogRecord logRecord, SourceLocations.CallSite probe, boolean callerCalculated) {
+    var loggerName = logRecord.getLoggerName();
+
+    // Asking for the source class name of a log record triggers the caller calculation.
+    var sourceClassName =
+        keyMode == KeyMode.CALL_SITE && callerCalculated ? logRecord.getSourceClassName() : null;
+    if (sourceClassName != null) {
+      probe.set(
+          sourceClassName,
+          logRecord.getSourceMethodName(),
+          logRecord.getSourceFileName(),
+          logRecord.getSourceLineNumber());
+      try {
+        return bucketsOf(probe, loggerName);
+      } finally {
+        probe.clear();
+      }
+    }
+
+    return loggerName == null ? overflowBuckets : bucketsOf(loggerName, loggerName);
+  }
+
+  private Bucket[] bucketsOf(Object key, @Nullable String loggerName) {
+    var keyBuckets = buckets.get(key);
+    if (keyBuckets != null) {
+      return keyBuckets;
+    }
+
+    if (buckets.size() >= MAX_KEYS) {
+      return overflowBuckets;
+    }
+
+    // The probe is reused, so store a copy.
+    var storedKey =
+        key instanceof SourceLocations.CallSite ? ((SourceLocations.CallSite) key).copy() : key;
+    return buckets.computeIfAbsent(storedKey, k -> newBuckets(loggerName));
+  }
+
+  private Bucket[] newBuckets(@Nullable String loggerName) {
+    var newBuckets = new Bucket[levels.length];
+    for (var i = 0; i < newBuckets.length; i++) {
+      newBuckets[i] = new Bucket(loggerName);
+    }
+    return newBuckets;
+  }
+
+  /**
+   * A token bucket, implemented as a virtual scheduling of log entries.
+   *
+   * <p>Instead of a token count, the bucket tracks the point in time at which it will be full
+   * again. Taking a token moves that point one interval into the future; a token is available as
+   * long as the point is less than the burst duration away.
+   */
+  private static final class Bucket {
+
+    /** The logger name reported in summary entries that are not written before a log entry. */
+    private final @Nullable String loggerName;
+
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private Bucket(@Nullable String loggerName) {
+      this.loggerName = loggerName;
+    }
+
+    private boolean hasToken(long now, long intervalNanos) {
+      var currentFullAt = fullAt.get();
+      return (currentFullAt - now < 0 ? now : currentFullAt) + intervalNanos - now <= BURST_NANOS;
+    }
+
+    private boolean tryAcquire(long now, long intervalNanos) {
+      while (true) {
+        var currentFullAt = fullAt.get();
+        var newFullAt = (currentFullAt - now < 0 ? now : currentFullAt) + intervalNanos;
+        if (newFullAt - now > BURST_NANOS) {
+          return false;
+        }
+        if (fullAt.compareAndSet(currentFullAt, newFullAt)) {
+          return true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.ErrorManager;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Periodically recomputes a value on a background thread and keeps the latest snapshot.
+ *
+ * <p>Reading the snapshot is a single volatile read. If recomputing the value fails, whether with
+ * an exception or an error, the previous snapshot is kept, the value continues to be recomputed,
+ * and the failure is reported through an {@link ErrorManager}, which prints the first failure to
+ * {@link System#err} and ignores subsequent ones.
+ *
+ * <p>Refreshers with the same interval share a background thread, so a slow computation delays
+ * the other refreshers of its interval, but not those of other intervals.
+ */
+final class Refresher<T> implements AutoCloseable {
+
+  private static final ConcurrentHashMap<Duration, ScheduledExecutorService> SCHEDULERS =
+      new ConcurrentHashMap<>();
+
+  private final AtomicReference<@Nullable T> snapshot;
+  private final ScheduledFuture<?> task;
+
+  /**
+   * Computes the initial value on the calling thread and schedules periodic recomputation.
+   *
+   * @param supplier computes the value.
+   * @param interval the delay between the end of one computation and the start of the next.
+   */
+  Refresher(Supplier<@Nullable T> supplier, Duration interval) {
+    if (interval.isNegative() || interval.isZero()) {
+      throw new IllegalArgumentException("interval must be positive: " + interval);
+    }
+
+    var snapshot = new AtomicReference<@Nullable T>(supplier.get());
+    var errorManager = new ErrorManager();
+    var intervalNanos = interval.toNanos();
+
+    var scheduler = SCHEDULERS.computeIfAbsent(interval, Refresher::newScheduler);
+
+    this.snapshot = snapshot;
+    this.task =
+        scheduler.scheduleWithFixedDelay(
+            () -> {
+              try {
+                snapshot.set(supplier.get());
+              } catch (Throwable e) {
+                // Letting anything escape would cancel the task for good.
+                errorManager.error(
+                    "Error refreshing log entry provider",
+                    e instanceof Exception ? (Exception) e : new RuntimeException(e),
+                    ErrorManager.GENERIC_FAILURE);
+              }
+            },
+            intervalNanos,
+            intervalNanos,
+            TimeUnit.NANOSECONDS);
+  }
+
+  private static ScheduledExecutorService newScheduler(Duration interval) {
+    return Executors.newSingleThreadScheduledExecutor(
+        runnable -> {
+          var thread = new Thread(runnable, "googlecloud-jsonlogging-refresher-" + interval);
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /** The most recently computed value. */
+  @Nullable T get() {
+    return snapshot.get();
+  }
+
+  /** Stops recomputing the value. The last snapshot stays available. */
+  @Override
+  public void close() {
+    task.cancel(false);
+  }
+
+  /**
+   * The context passed to providers that are called in the background.
+   *
+   * <p>There is no log record to take the context from, so all properties are empty.
+   */
+  static final class BackgroundContext
+      implements LabelProvider.Context, StructuredParameterProvider.Context {
+
+    static final BackgroundContext INSTANCE = new BackgroundContext();
+
+    private BackgroundContext() {}
+
+    @Override
+    public @Nullable String loggerName() {
+      return null;
+    }
+
+    @Override
+    public long sequenceNumber() {
+      return 0;
+    }
+
+    @Override
+    public @Nullable String threadName() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A {@link LabelProvider} that calls another one in the background at a fixed interval.
+ *
+ * <p>Useful for providers that are too slow to be called while formatting a log entry, such as
+ * ones that read Kubernetes downward API volumes or query a local agent. The {@link Formatter}
+ * reads the labels most recently provided without blocking.
+ *
+ * <p>The wrapped provider is called once when the {@link RefreshingLabelProvider} is created and
+ * then again on a background thread after each {@code interval} has passed. The thread is shared
+ * with the other refreshing providers of the same interval. It is passed a {@link
+ * LabelProvider.Context} whose properties are all empty, and its {@link
+ * LabelProvider#getLabelScope()} is ignored. If it throws an exception or an error, the previous
+ * labels are kept, and it is called again after the next interval.
+ *
+ * <p><strong>Example:</strong>
+ *
+ * {@snippet :
+ * var podLabels = RefreshingLabelProvider.of(new PodLabelProvider(), Duration.ofMinutes(1));
+ * var formatter = new Formatter(List.of(), List.of(podLabels));
+ * }
+ *
+ * @see RefreshingParameterProvider
+ */
+public final class RefreshingLabelProvider implements LabelProvider, AutoCloseable {
+
+  private final Refresher<Collection<Label>> refresher;
+
+  private RefreshingLabelProvider(LabelProvider delegate, Duration interval) {
+    this.refresher =
+        new Refresher<>(
+            () -> snapshotOf(delegate.getLabels(Refresher.BackgroundContext.INSTANCE)), interval);
+  }
+
+  /**
+   * Wraps a {@link LabelProvider} so that it is called in the background.
+   *
+   * @param delegate the provider to call in the background.
+   * @param interval the time between two calls of {@code delegate}.
+   * @return a new {@link RefreshingLabelProvider}.
+   */
+  public static RefreshingLabelProvider of(LabelProvider delegate, Duration interval) {
+    return new RefreshingLabelProvider(delegate, interval);
+  }
+
+  private static @Nullable Collection<Label> snapshotOf(@Nullable Collection<Label> labels) {
+    return labels == null ? null : List.copyOf(labels);
+  }
+
+  @Override
+  public @Nullable Collection<Label> getLabels(Context context) {
+    return refresher.get();
+  }
+
+  /** Stops calling the wrapped provider. The labels most recently provided remain in use. */
+  @Override
+  public void close() {
+    refresher.close();
+  }
+}
@@ -0,0 +1,74 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.time.Duration;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A {@link StructuredParameterProvider} that calls another one in the background at a fixed
+ * interval.
+ *
+ * <p>Useful for providers that are too slow to be called while formatting a log entry, such as
+ * ones that read mounted configuration files or query a local agent. The {@link Formatter} reads
+ * the parameter most recently provided without blocking. The parameter is serialized when it is
+ * provided, so it is not serialized again for each log entry.
+ *
+ * <p>The wrapped provider is called once when the {@link RefreshingParameterProvider} is created
+ * and then again on a background thread after each {@code interval} has passed. The thread is
+ * shared with the other refreshing providers of the same interval. It is passed a {@link
+ * StructuredParameterProvider.Context} whose properties are all empty, and its {@link
+ * StructuredParameterProvider#getParameterScope()} is ignored. If it throws an exception or an
+ * error, the previous parameter is kept, and it is called again after the next interval.
+ *
+ * <p><strong>Example:</strong>
+ *
+ * {@snippet :
+ * var nodeInfo = RefreshingParameterProvider.of(new NodeInfoProvider(), Duration.ofMinutes(5));
+ * var formatter = new Formatter(List.of(nodeInfo), List.of());
+ * }
+ *
+ * @see RefreshingLabelProvider
+ */
+public final class RefreshingParameterProvider
+    implements StructuredParameterProvider, AutoCloseable {
+
+  private final Refresher<StructuredParameter> refresher;
+
+  private RefreshingParameterProvider(StructuredParameterProvider delegate, Duration interval) {
+    this.refresher =
+        new Refresher<>(
+            () -> snapshotOf(delegate.getParameter(Refresher.BackgroundContext.INSTANCE)),
+            interval);
+  }
+
+  /**
+   * Wraps a {@link StructuredParameterProvider} so that it is called in the background.
+   *
+   * @param delegate the provider to call in the background.
+   * @param interval the time between two calls of {@code delegate}.
+   * @return a new {@link RefreshingParameterProvider}.
+   */
+  public static RefreshingParameterProvider of(
+      StructuredParameterProvider delegate, Duration interval) {
+    return new RefreshingParameterProvider(delegate, interval);
+  }
+
+  private static @Nullable StructuredParameter snapshotOf(
+      @Nullable StructuredParameter parameter) {
+    return parameter == null ? null : new ScopedProviders.RenderedParameter(parameter);
+  }
+
+  @Override
+  public @Nullable StructuredParameter getParameter(Context context) {
+    return refresher.get();
+  }
+
+  /** Stops calling the wrapped provider. The parameter most recently provided remains in use. */
+  @Override
+  public void close() {
+    refresher.close();
+  }
+}
@@ -0,0 +1,354 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import jakarta.json.JsonObjectBuilder;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Calls {@link StructuredParameterProvider}s and {@link LabelProvider}s according to their {@link
+ * ProviderScope}.
+ *
+ * <p>Providers with a scope other than {@link ProviderScope#RECORD} are called once per scope.
+ * Their results are serialized right away and spliced into log entries as pre-rendered fragments.
+ *
+ * <p>Results are cached per logger for {@link ProviderScope#LOGGER} and per thread for {@link
+ * ProviderScope#THREAD}. The per-logger cache is a {@link BoundedCache}, which keeps the results of
+ * the loggers in use. Results are not cached for virtual threads, which are typically created per
+ * task and would leave behind one cache entry each without ever reusing it.
+ *
+ * <p>Providers of {@link ProviderScope#RECORD} scope are called through the {@link
+ * ProviderInvoker}, if there is one and it knows their class.
+ */
+final class ScopedProviders {
+
+  private static final int MAX_CACHED_LOGGERS = 1024;
+
+  /** {@code Thread#isVirtual()}, or {@code null} on Java versions before 21. */
+  private static final @Nullable MethodHandle IS_VIRTUAL = findIsVirtual();
+
+  private final List<StructuredParameterProvider> parameterProviders;
+  private final ProviderScope[] parameterScopes;
+  private final int[] parameterIndices;
+  private final int[] parameterSlots;
+
+  private final List<LabelProvider> labelProviders;
+
+  private final Map<ProviderScope, List<StructuredParameterProvider>> scopedParameterProviders;
+  private final Map<ProviderScope, List<LabelProvider>> scopedLabelProviders;
+  private final List<LabelProvider> recordLabelProviders;
+  private final int[] recordLabelSlots;
+  private final @Nullable ProviderInvoker invoker;
+
+  private volatile @Nullable Results staticScopeResults;
+  private final BoundedCache<String, Results> loggerScopeResults =
+      new BoundedCache<>(MAX_CACHED_LOGGERS);
+  private final ThreadLocal<@Nullable Results> threadScopeResults = new ThreadLocal<>();
+
+  ScopedProviders(
+      List<StructuredParameterProvider> parameterProviders,
+      List<LabelProvider> labelProviders,
+      @Nullable ProviderInvoker invoker) {
+    this.parameterProviders = parameterProviders;
+    this.parameterScopes = new ProviderScope[parameterProviders.size()];
+    this.parameterIndices = new int[parameterProviders.size()];
+    this.parameterSlots = new int[parameterProviders.size()];
+    this.labelProviders = labelProviders;
+    this.invoker = invoker;
+
+    scopedParameterProviders = new EnumMap<>(ProviderScope.class);
+    scopedLabelProviders = new EnumMap<>(ProviderScope.class);
+    for (var scope : ProviderScope.values()) {
+      scopedParameterProviders.put(scope, new ArrayList<>());
+      scopedLabelProviders.put(scope, new ArrayList<>());
+    }
+
+    for (var i = 0; i < parameterProviders.size(); i++) {
+      var parameterProvider = parameterProviders.get(i);
+      var scope = parameterProvider.getParameterScope();
+      var providersInScope = scopedParameterProviders.get(scope);
+      parameterScopes[i] = scope;
+      parameterIndices[i] = providersInScope.size();
+      parameterSlots[i] = invoker == null ? -1 : invoker.parameterSlotOf(parameterProvider);
+      providersInScope.add(parameterProvider);
+    }
+
+    for (var labelProvider : labelProviders) {
+      scopedLabelProviders.get(labelProvider.getLabelScope()).add(labelProvider);
+    }
+
+    recordLabelProviders = scopedLabelProviders.get(ProviderScope.RECORD);
+    recordLabelSlots = new int[recordLabelProviders.size()];
+    for (var i = 0; i < recordLabelSlots.length; i++) {
+      recordLabelSlots[i] = invoker == null ? -1 : invoker.labelSlotOf(recordLabelProviders.get(i));
+    }
+  }
+
+  /** The parameter providers in provider order. */
+  List<StructuredParameterProvider> parameterProviders() {
+    return parameterProviders;
+  }
+
+  /** The label providers in provider order. */
+  List<LabelProvider> labelProviders() {
+    return labelProviders;
+  }
+
+  /**
+   * Calls or looks up the results of all providers for a log record.
+   *
+   * <p>The {@link StructuredParameter}s are added to {@code entry} in provider order. The labels of
+   * the cached scopes are added as label layers, broadest scope first.
+   *
+   * @param context the context of the log record.
+   * @param entry the log entry to add parameters and labels to.
+   */
+  <C extends LabelProvider.Context & StructuredParameterProvider.Context> void collect(
+      C context, LogEntry entry) {
+    var staticResults = resultsIn(ProviderScope.STATIC, context);
+    var loggerResults = resultsIn(ProviderScope.LOGGER, context);
+    var threadResults = resultsIn(ProviderScope.THREAD, context);
+
+    for (var i = 0; i < parameterProviders.size(); i++) {
+      @Nullable StructuredParameter parameter;
+      switch (parameterScopes[i]) {
+        case STATIC:
+          parameter = staticResults.parameters[parameterIndices[i]];
+          break;
+
+        case LOGGER:
+          parameter = loggerResults.parameters[parameterIndices[i]];
+          break;
+
+        case THREAD:
+          parameter = threadResults.parameters[parameterIndices[i]];
+          break;
+
+        case RECORD:
+        default:
+          var parameterProvider = parameterProviders.get(i);
+          var slot = parameterSlots[i];
+          parameter =
+              slot < 0
+                  ? parameterProvider.getParameter(context)
+                  : ((@NonNull ProviderInvoker) invoker)
+                      .getParameter(slot, parameterProvider, context);
+          break;
+      }
+
+      if (parameter != null) {
+        entry.addParameter(parameter);
+      }
+    }
+
+    addLabelLayer(entry, staticResults);
+    addLabelLayer(entry, loggerResults);
+    addLabelLayer(entry, threadResults);
+
+    for (var i = 0; i < recordLabelProviders.size(); i++) {
+      var labelProvider = recordLabelProviders.get(i);
+      var slot = recordLabelSlots[i];
+      var providedLabels =
+          slot < 0
+              ? labelProvider.getLabels(context)
+              : ((@NonNull ProviderInvoker) invoker).getLabels(slot, labelProvider, context);
+      if (providedLabels != null) {
+        for (var label : providedLabels) {
+          entry.putLabel(label);
+        }
+      }
+    }
+  }
+
+  private static void addLabelLayer(LogEntry entry, Results results) {
+    if (results.labels != null) {
+      entry.addLabelLayer(results.labels);
+    }
+  }
+
+  private <C extends LabelProvider.Context & StructuredParameterProvider.Context>
+      Results resultsIn(ProviderScope scope, C context) {
+    if (scopedParameterProviders.get(scope).isEmpty()
+        && scopedLabelProviders.get(scope).isEmpty()) {
+      return Results.EMPTY;
+    }
+
+    Results results;
+    switch (scope) {
+      case STATIC:
+        results = staticScopeResults;
+        if (results == null) {
+          // Racing threads may call the providers more than once, which is harmless.
+          results = computeResults(scope, context);
+          staticScopeResults = results;
+        }
+        return results;
+
+      case LOGGER:
+        var loggerName = context.loggerName();
+        if (loggerName == null) {
+          return computeResults(scope, context);
+        }
+        results = loggerScopeResults.get(loggerName);
+        if (results == null) {
+          results = computeResults(scope, context);
+          loggerScopeResults.put(loggerName, results);
+        }
+        return results;
+
+      case THREAD:
+        if (isVirtualThread()) {
+          return computeResults(scope, context);
+        }
+        results = threadScopeResults.get();
+        if (results == null) {
+          results = computeResults(scope, context);
+          threadScopeResults.set(results);
+        }
+        return results;
+
+      case RECORD:
+      default:
+        throw new IllegalArgumentException("results of scope " + scope + " are not cached");
+    }
+  }
+
+  private static @Nullable MethodHandle findIsVirtual() {
+    try {
+      return MethodHandles.publicLookup()
+          .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static boolean isVirtualThread() {
+    var isVirtual = IS_VIRTUAL;
+    if (isVirtual == null) {
+      return false;
+    }
+
+    try {
+      return (boolean) isVirtual.invokeExact(Thread.currentThread());
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+
+  private <C extends LabelProvider.Context & StructuredParameterProvider.Context>
+      Results computeResults(ProviderScope scope, C context) {
+    var providersInScope = scopedParameterProviders.get(scope);
+    var parameters = new @Nullable StructuredParameter[providersInScope.size()];
+    for (var i = 0; i < parameters.length; i++) {
+      var parameter = providersInScope.get(i).getParameter(context);
+      if (parameter != null) {
+        parameters[i] = new RenderedParameter(parameter);
+      }
+    }
+
+    Map<String, Label> labels = new LinkedHashMap<>();
+    for (var labelProvider : scopedLabelProviders.get(scope)) {
+      var providedLabels = labelProvider.getLabels(context);
+      if (providedLabels != null) {
+        for (var label : providedLabels) {
+          labels.put(label.key(), label);
+        }
+      }
+    }
+
+    return new Results(parameters, labels.isEmpty() ? null : new RenderedLabels(labels));
+  }
+
+  /** The results of the providers of a single scope. */
+  private static final class Results {
+
+    static final Results EMPTY = new Results(new StructuredParameter[0], null);
+
+    final @Nullable StructuredParameter[] parameters;
+    final @Nullable RenderedLabels labels;
+
+    Results(@Nullable StructuredParameter[] parameters, @Nullable RenderedLabels labels) {
+      this.parameters = parameters;
+      this.labels = labels;
+    }
+  }
+
+  /** A {@link StructuredParameter} together with its serialized members. */
+  static final class RenderedParameter implements StructuredParameter {
+
+    private final StructuredParameter parameter;
+    private final byte[] fragment;
+
+    RenderedParameter(StructuredParameter parameter) {
+      var b = new JsonBuffer(256);
+      if (parameter instanceof KeyValueParameter) {
+        ((KeyValueParameter) parameter).appendTo(b);
+      } else {
+        parameter.writeJson(b);
+      }
+
+      this.parameter = parameter;
+      this.fragment = b.toByteArray();
+    }
+
+    /** The serialized members of the parameter, each followed by a comma. */
+    byte[] fragment() {
+      return fragment;
+    }
+
+    @Override
+    public JsonObjectBuilder json() {
+      return parameter.json();
+    }
+
+    @Override
+    public void writeJson(Writer writer) {
+      parameter.writeJson(writer);
+    }
+  }
+
+  /** A set of {@link Label}s together with their serialized members. */
+  static final class RenderedLabels {
+
+    private final Map<String, Label> labels;
+    private final Label[] labelArray;
+    private final byte[] fragment;
+
+    RenderedLabels(Map<String, Label> labels) {
+      var b = new JsonBuffer(256);
+      for (var label : labels.values()) {
+        b.appendMember(label.jsonKey(), label.value());
+      }
+
+      this.labels = labels;
+      this.labelArray = labels.values().toArray(new Label[0]);
+      this.fragment = b.toByteArray();
+    }
+
+    /** The labels by key. */
+    Map<String, Label> labels() {
+      return labels;
+    }
+
+    /** The labels in rendering order. */
+    Label[] labelArray() {
+      return labelArray;
+    }
+
+    /** The serialized labels as object members, each followed by a comma. */
+    byte[] fragment() {
+      return fragment;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.Objects;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Pre-rendered {@code logging.googleapis.com/sourceLocation} members.
+ *
+ * <p>A log statement produces the same source location every time it is executed, so the rendered
+ * member is cached by class, method, file, and line in a {@link BoundedCache}, which keeps the
+ * source locations of the log statements in use.
+ *
+ * <p>Rendered source locations are shared and must not be modified.
+ */
+final class SourceLocations {
+
+  private static final int MAX_CACHED_SOURCE_LOCATIONS = 4096;
+
+  private static final byte[] SOURCE_LOCATION_KEY =
+      JsonKeys.render("logging.googleapis.com/sourceLocation");
+
+  private static final BoundedCache<CallSite, byte[]> CACHE =
+      new BoundedCache<>(MAX_CACHED_SOURCE_LOCATIONS, CallSite::copy);
+
+  private SourceLocations() {}
+
+  /**
+   * Returns the rendered source location of {@code logRecord} including the trailing comma.
+   *
+   * <p>Calculates the caller of {@code logRecord} if that has not happened yet.
+   *
+   * @param logRecord the log record whose source location to render.
+   * @param probe a scratch {@link CallSite} used to look up the cache without allocating.
+   * @return the rendered source location, or {@code null} if the source location is unknown.
+   */
+  static byte @Nullable [] of(ExtLogRecord logRecord, CallSite probe) {
+    var sourceFileName = logRecord.getSourceFileName();
+    var sourceLineNumber = logRecord.getSourceLineNumber();
+    var sourceClassName = logRecord.getSourceClassName();
+    var sourceMethodName = logRecord.getSourceMethodName();
+
+    if (sourceFileName == null
+        && sourceLineNumber <= 0
+        && sourceClassName == null
+        && sourceMethodName == null) {
+      return null;
+    }
+
+    probe.set(sourceClassName, sourceMethodName, sourceFileName, sourceLineNumber);
+    var rendered = CACHE.get(probe);
+    if (rendered == null) {
+      rendered = render(probe);
+      CACHE.put(probe, rendered);
+    }
+    probe.clear();
+    return rendered;
+  }
+
+  private static byte[] render(CallSite callSite) {
+    var sourceLocation =
+        new LogEntry.SourceLocation(
+            callSite.fileName,
+            String.valueOf(callSite.lineNumber),
+            callSite.className + "." + callSite.methodName);
+
+    var b = new JsonBuffer(128);
+    b.append(SOURCE_LOCATION_KEY);
+    b.append('{');
+    sourceLocation.json(b);
+    b.appendAscii("},");
+    return b.toByteArray();
+  }
+
+  /**
+   * The key of a cached source location.
+   *
+   * <p>Mutable so that a single instance per thread can serve as a lookup probe. Keys stored in a
+   * cache are copies that are never modified.
+   */
+  static final class CallSite {
+
+    private @Nullable String className = null;
+    private @Nullable String methodName = null;
+    private @Nullable String fileName = null;
+    private int lineNumber = 0;
+
+    void set(
+        @Nullable String className,
+        @Nullable String methodName,
+        @Nullable String fileName,
+        int lineNumber) {
+      this.className = className;
+      this.methodName = methodName;
+      this.fileName = fileName;
+      this.lineNumber = lineNumber;
+    }
+
+    void clear() {
+      set(null, null, null, 0);
+    }
+
+    CallSite copy() {
+      var copy = new CallSite();
+      copy.set(className, methodName, fileName, lineNumber);
+      return copy;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (obj == this) return true;
+      if (!(obj instanceof CallSite)) return false;
+      var that = (CallSite) obj;
+      return lineNumber == that.lineNumber
+          && Objects.equals(className, that.className)
+          && Objects.equals(methodName, that.methodName)
+          && Objects.equals(fileName, that.fileName);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * (31 * Objects.hashCode(className) + Objects.hashCode(methodName))
+              + Objects.hashCode(fileName))
+          + lineNumber;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Renders stack traces into a {@link JsonBuffer} as the content of a JSON string.
+ *
+ * <p>By default, the output is the same as that of {@link Throwable#printStackTrace()}, including
+ * causes, suppressed exceptions, and elided common frames, which is the format Google Cloud Error
+ * Reporting expects. Unlike {@link Throwable#printStackTrace()}, rendering does not go through a
+ * {@link java.io.PrintWriter} and does not lock anything.
+ *
+ * <p>Optionally, the output can be made more compact by limiting the number of frames rendered per
+ * throwable and by folding consecutive frames from framework packages into a single line. Frames
+ * cut off by the limit are counted in the usual {@code ... N more} line.
+ *
+ * <p>Errors tend to repeat, and so do the stack frames they pass through. The rendered and escaped
+ * text of each {@link StackTraceElement} is therefore cached in a {@link BoundedCache}, which keeps
+ * the frames of recurring errors and lets the frames of one-off errors, such as those at startup,
+ * age out.
+ */
+final class StackTraceRenderer {
+
+  /** A renderer that renders all frames, just like {@link Throwable#printStackTrace()}. */
+  static final StackTraceRenderer FULL = new StackTraceRenderer(0, List.of());
+
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+  private static final String CAUSE_CAPTION = "Caused by: ";
+  private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+
+  private static final byte[] AT = escape("\tat ");
+  private static final byte[] NEWLINE = escape(LINE_SEPARATOR);
+
+  private static final int MAX_CACHED_FRAMES = 4096;
+
+  private static final BoundedCache<StackTraceElement, byte[]> FRAME_CACHE =
+      new BoundedCache<>(MAX_CACHED_FRAMES);
+
+  private static final StackTraceElement[] NO_FRAMES = new StackTraceElement[0];
+
+  private final int maxFrames;
+  private final String[] foldedPackages;
+
+  /**
+   * Constructs a {@link StackTraceRenderer}.
+   *
+   * @param maxFrames the maximum number of frame lines to render per throwable, or 0 for no limit.
+   * @param foldedPackages the package prefixes of frames to fold.
+   */
+  StackTraceRenderer(int maxFrames, Collection<String> foldedPackages) {
+    if (maxFrames < 0) {
+      throw new IllegalArgumentException("maxFrames must not be negative: " + maxFrames);
+    }
+
+    this.maxFrames = maxFrames;
+    this.foldedPackages = foldedPackages.toArray(new String[0]);
+  }
+
+  /** Appends the stack trace of {@code throwable}, escaped as JSON string content. */
+  void appendStackTrace(JsonBuffer b, Throwable throwable) {
+    Set<Throwable> dejaVu = Collections.newSetFromMap(new IdentityHashMap<>());
+    appendEnclosedStackTrace(b, throwable, NO_FRAMES, "", "", dejaVu);
+  }
+
+  private void appendEnclosedStackTrace(
+      JsonBuffer b,
+      Throwable throwable,
+      StackTraceElement[] enclosingTrace,
+      String caption,
+      String prefix,
+      Set<Throwable> dejaVu) {
+    if (!dejaVu.add(throwable)) {
+      b.appendJsonStringContent(prefix);
+      b.appendJsonStringContent(caption);
+      b.appendJsonStringContent("[CIRCULAR REFERENCE: ");
+      b.appendJsonStringContent(String.valueOf(throwable));
+      appendLine(b, "]");
+      return;
+    }
+
+    // Elide the frames this trace has in common with the enclosing one.
+    var trace = throwable.getStackTrace();
+    var m = trace.length - 1;
+    var n = enclosingTrace.length - 1;
+    while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+      m--;
+      n--;
+    }
+    var framesInCommon = trace.length - 1 - m;
+
+    b.appendJsonStringContent(prefix);
+    b.appendJsonStringContent(caption);
+    appendLine(b, String.valueOf(throwable));
+
+    var end = appendFrames(b, prefix, trace, m + 1);
+
+    // Frames cut off by the frame limit are reported together with the common frames.
+    var framesOmitted = m + 1 - end + framesInCommon;
+    if (framesOmitted != 0) {
+      b.appendJsonStringContent(prefix);
+      b.appendJsonStringContent("\t... ");
+      b.append(framesOmitted);
+      appendLine(b, " more");
+    }
+
+    for (var suppressed : throwable.getSuppressed()) {
+      appendEnclosedStackTrace(b, suppressed, trace, SUPPRESSED_CAPTION, prefix + "\t", dejaVu);
+    }
+
+    var cause = throwable.getCause();
+    if (cause != null) {
+      appendEnclosedStackTrace(b, cause, trace, CAUSE_CAPTION, prefix, dejaVu);
+    }
+  }
+
+  /**
+   * Appends the frames {@code trace[0..length)}, folding and capping them as configured.
+   *
+   * <p>Frames are only folded after the first frame that is not in a folded package, so the frames
+   * that identify where an error originated stay intact.
+   *
+   * @return the index of the first frame not appended because of the frame limit, or {@code
+   *     length} if all frames were appended.
+   */
+  private int appendFrames(JsonBuffer b, String prefix, StackTraceElement[] trace, int length) {
+    var lines = 0;
+    var foldingAllowed = false;
+
+    var i = 0;
+    while (i < length) {
+      if (maxFrames > 0 && lines == maxFrames) {
+        return i;
+      }
+
+      var frame = trace[i];
+      var foldedPackage = foldedPackageOf(frame);
+
+      if (foldedPackage == null) {
+        foldingAllowed = true;
+      } else if (foldingAllowed) {
+        var runEnd = i + 1;
+        while (runEnd < length && trace[runEnd].getClassName().startsWith(foldedPackage)) {
+          runEnd++;
+        }
+
+        if (runEnd - i > 1) {
+          b.appendJsonStringContent(prefix);
+          b.appendJsonStringContent("\t... ");
+          b.append(runEnd - i);
+          b.appendJsonStringContent(" frames in ");
+          appendLine(b, foldedPackage);
+          lines++;
+          i = runEnd;
+          continue;
+        }
+      }
+
+      appendFrame(b, prefix, frame);
+      lines++;
+      i++;
+    }
+
+    return length;
+  }
+
+  private @Nullable String foldedPackageOf(StackTraceElement frame) {
+    if (foldedPackages.length == 0) {
+      return null;
+    }
+
+    var className = frame.getClassName();
+    for (var foldedPackage : foldedPackages) {
+      if (className.startsWith(foldedPackage)) {
+        return foldedPackage;
+      }
+    }
+    return null;
+  }
+
+  private static void appendFrame(JsonBuffer b, String prefix, StackTraceElement frame) {
+    if (!prefix.isEmpty()) {
+      b.appendJsonStringContent(prefix);
+    }
+    b.append(AT);
+    b.append(renderFrame(frame));
+    b.append(NEWLINE);
+  }
+
+  private static byte[] renderFrame(StackTraceElement frame) {
+    var rendered = FRAME_CACHE.get(frame);
+    if (rendered == null) {
+      rendered = escape(frame.toString());
+      FRAME_CACHE.put(frame, rendered);
+    }
+    return rendered;
+  }
+
+  private static void appendLine(JsonBuffer b, String line) {
+    b.appendJsonStringContent(line);
+    b.append(NEWLINE);
+  }
+
+  private static byte[] escape(String s) {
+    var b = new JsonBuffer(s.length() + 16);
+    b.appendJsonStringContent(s);
+    return b.toByteArray();
+  }
+}
@@ -5,6 +5,7 @@
 package eu.mulk.quarkus.googlecloud.jsonlogging;
 
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonValue;
 
 /**
  * A structured parameter usable as logging payload.
@@ -35,4 +36,72 @@ public interface StructuredParameter {
    * @return A {@link JsonObjectBuilder} holding a set of key–value pairs.
    */
   JsonObjectBuilder json();
+
+  /**
+   * Writes the JSON to be embedded in the payload of the log entry.
+   *
+   * <p>Each key–value pair passed to {@code writer} is embedded as a top-level entry in the payload
+   * of the log entry, just like the top-level entries of the object returned by {@link #json()}.
+   *
+   * <p>The formatter calls this method instead of {@link #json()}. Override it to write key–value
+   * pairs directly into the output without allocating an intermediate {@link
+   * jakarta.json.JsonObject}.
+   *
+   * <p>Builds the object returned by {@link #json()} and writes its entries by default.
+   *
+   * @param writer the writer to pass key–value pairs to.
+   */
+  default void writeJson(Writer writer) {
+    json().build().forEach(writer::write);
+  }
+
+  /**
+   * A sink for the key–value pairs of a {@link StructuredParameter}.
+   *
+   * <p>Keys and string values are escaped by the writer.
+   *
+   * @see #writeJson(Writer)
+   */
+  interface Writer {
+
+    /**
+     * Writes a key–value pair with a {@code string} value.
+     *
+     * @param key the key part of the key–value pair.
+     * @param value the value part of the key–value pair.
+     */
+    void write(String key, String value);
+
+    /**
+     * Writes a key–value pair with a {@code number} value.
+     *
+     * @param key the key part of the key–value pair.
+     * @param value the value part of the key–value pair.
+     */
+    void write(String key, long value);
+
+    /**
+     * Writes a key–value pair with a {@code number} value.
+     *
+     * @param key the key part of the key–value pair.
+     * @param value the value part of the key–value pair. Must be finite.
+     */
+    void write(String key, double value);
+
+    /**
+     * Writes a key–value pair with a {@code boolean} value.
+     *
+     * @param key the key part of the key–value pair.
+     * @param value the value part of the key–value pair.
+     */
+    void write(String key, boolean value);
+
+    /**
+     * Writes a key–value pair with an arbitrary value, including nested objects and arrays.
+     *
+     * @param key the key part of the key–value pair.
+     * @param value the value part of the key–value pair.
+     */
+    void write(String key, JsonValue value);
+  }
 }
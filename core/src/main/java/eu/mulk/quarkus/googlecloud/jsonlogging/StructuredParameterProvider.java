@@ -79,6 +79,21 @@ public interface StructuredParameterProvider {
     return getParameter();
   }
 
+  /**
+   * The scope within which the result of {@link #getParameter(Context)} stays the same.
+   *
+   * <p>Providers that return parameters that do not change for every log entry can declare a
+   * broader scope so that they are called less often and their parameters are serialized only once
+   * per scope.
+   *
+   * <p>Defaults to {@link ProviderScope#RECORD}.
+   *
+   * @return the scope of this provider.
+   */
+  default ProviderScope getParameterScope() {
+    return ProviderScope.RECORD;
+  }
+
   /** Contextual data available to {@link #getParameter(Context)}. */
   interface Context extends ProviderContext {}
 }
@@ -0,0 +1,64 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * The trace context of the log record that is being formatted.
+ *
+ * <p>Instances are reused from log record to log record on the same thread, so that supplying the
+ * trace context does not allocate.
+ */
+final class TraceContext implements TraceContextProvider.Writer {
+
+  private static final byte[] TRACE_KEY = JsonKeys.render("logging.googleapis.com/trace");
+  private static final byte[] SPAN_ID_KEY = JsonKeys.render("logging.googleapis.com/spanId");
+  private static final byte[] TRACE_SAMPLED_KEY =
+      JsonKeys.render("logging.googleapis.com/trace_sampled");
+
+  private byte @Nullable [] tracePrefix;
+  private @Nullable String traceId;
+  private @Nullable String spanId;
+  private boolean sampled;
+
+  /**
+   * Clears the trace context.
+   *
+   * @param tracePrefix the escaped string to put in front of the trace ID, such as {@code
+   *     projects/my-project/traces/}, or {@code null} for none.
+   */
+  void reset(byte @Nullable [] tracePrefix) {
+    this.tracePrefix = tracePrefix;
+    this.traceId = null;
+    this.spanId = null;
+    this.sampled = false;
+  }
+
+  @Override
+  public void write(String traceId, String spanId, boolean sampled) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.sampled = sampled;
+  }
+
+  /** Appends the trace context as object members, each followed by a comma, if it is set. */
+  void json(JsonBuffer b) {
+    if (traceId == null || spanId == null) {
+      return;
+    }
+
+    b.append(TRACE_KEY);
+    b.append('"');
+    if (tracePrefix != null) {
+      b.append(tracePrefix);
+    }
+    b.appendJsonStringContent(traceId);
+    b.appendAscii("\",");
+
+    b.appendMember(SPAN_ID_KEY, spanId);
+    b.appendMember(TRACE_SAMPLED_KEY, sampled);
+  }
+}
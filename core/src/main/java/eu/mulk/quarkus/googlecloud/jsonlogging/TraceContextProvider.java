@@ -0,0 +1,62 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * Supplies the trace context of log records, typically from a tracing library.
+ *
+ * <p>If a {@link TraceContextProvider} is {@linkplain Formatter#setTraceContextProvider
+ * registered} with the {@link Formatter}, log entries carry the {@code
+ * logging.googleapis.com/trace}, {@code logging.googleapis.com/spanId}, and {@code
+ * logging.googleapis.com/trace_sampled} fields, which Google Cloud Logging uses to correlate log
+ * entries with traces.
+ *
+ * <p>Unlike a {@link StructuredParameterProvider}, a {@link TraceContextProvider} does not
+ * construct any objects for the formatter to serialize. It passes the identifiers to a {@link
+ * Writer}, which renders them directly.
+ *
+ * <p><strong>Example:</strong>
+ *
+ * {@snippet :
+ * public final class OpenTelemetryTraceContextProvider implements TraceContextProvider {
+ *
+ *   @Override
+ *   public void writeTraceContext(ExtLogRecord logRecord, Writer writer) {
+ *     var spanContext = Span.current().getSpanContext();
+ *     if (spanContext.isValid()) {
+ *       writer.write(spanContext.getTraceId(), spanContext.getSpanId(), spanContext.isSampled());
+ *     }
+ *   }
+ * }
+ * }
+ */
+public interface TraceContextProvider {
+
+  /**
+   * Passes the trace context of a log record to {@code writer}, if there is one.
+   *
+   * <p>Called on the thread that formats the log record, which is not necessarily the thread that
+   * logged it.
+   *
+   * @param logRecord the log record that is being formatted.
+   * @param writer receives the trace context. Must be called at most once.
+   */
+  void writeTraceContext(ExtLogRecord logRecord, Writer writer);
+
+  /** Receives the trace context of a log record. */
+  interface Writer {
+
+    /**
+     * Sets the trace context of the log record that is being formatted.
+     *
+     * @param traceId the trace ID as a 32-character hexadecimal string.
+     * @param spanId the span ID as a 16-character hexadecimal string.
+     * @param sampled whether the trace is sampled.
+     */
+    void write(String traceId, String spanId, boolean sampled);
+  }
+}
@@ -0,0 +1,90 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * A {@link Filter} that lets log records below a base level through only while verbose logging is
+ * switched on for the current unit of work.
+ *
+ * <p>Verbose logging is switched on by an entry in the mapped diagnostic context, typically put
+ * there by a request filter in response to a request header. This makes it possible to enable
+ * {@code DEBUG} output for a single request while all other requests log at the base level.
+ *
+ * <p>For log records below the base level to reach the filter in the first place, the levels of
+ * the loggers concerned need to be set to the most verbose level that is to be logged. The base
+ * level then takes over the role of the logger level.
+ *
+ * <p>The filter looks up a single entry of the mapped diagnostic context captured by the log
+ * record, or of the current thread if the log record has not captured one yet. It never copies the
+ * context. Log records of the base level and above pass without any lookup.
+ *
+ * @see Formatter#setVerboseLogging(VerboseLogging)
+ */
+public final class VerboseLogging implements Filter {
+
+  private final Level baseLevel;
+  private final int baseLevelValue;
+  private final String mdcKey;
+  private final String mdcValue;
+
+  /**
+   * Constructs a {@link VerboseLogging} filter.
+   *
+   * @param baseLevel the minimum level of log records that are let through regardless of the
+   *     mapped diagnostic context.
+   * @param mdcKey the key of the entry of the mapped diagnostic context that switches verbose
+   *     logging on.
+   * @param mdcValue the value of the entry that switches verbose logging on.
+   */
+  public VerboseLogging(Level baseLevel, String mdcKey, String mdcValue) {
+    this.baseLevel = baseLevel;
+    this.baseLevelValue = baseLevel.intValue();
+    this.mdcKey = mdcKey;
+    this.mdcValue = mdcValue;
+  }
+
+  /**
+   * The minimum level of log records that are let through regardless of the mapped diagnostic
+   * context.
+   *
+   * @return the base level.
+   */
+  public Level getBaseLevel() {
+    return baseLevel;
+  }
+
+  /**
+   * The key of the entry of the mapped diagnostic context that switches verbose logging on.
+   *
+   * @return the key.
+   */
+  public String getMdcKey() {
+    return mdcKey;
+  }
+
+  /**
+   * The value of the entry of the mapped diagnostic context that switches verbose logging on.
+   *
+   * @return the value.
+   */
+  public String getMdcValue() {
+    return mdcValue;
+  }
+
+  @Override
+  public boolean isLoggable(LogRecord record) {
+    if (record.getLevel().intValue() >= baseLevelValue) {
+      return true;
+    }
+
+    return record instanceof ExtLogRecord
+        && mdcValue.equals(((ExtLogRecord) record).getMdc(mdcKey));
+  }
+}
@@ -0,0 +1,463 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.logmanager;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.AdaptiveDegradation;
+import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter;
+import eu.mulk.quarkus.googlecloud.jsonlogging.FormatterMetrics.DropReason;
+import eu.mulk.quarkus.googlecloud.jsonlogging.KeyValueParameter;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import org.jboss.logmanager.ExtHandler;
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * A handler that formats and writes log entries on a dedicated background thread.
+ *
+ * <p>Log records are handed over to the background thread through a preallocated, lock-free ring
+ * buffer, so a slow standard output stream does not stall the threads that log. What happens when
+ * the buffer is full is determined by the {@link OverflowPolicy}.
+ *
+ * <p>If log entries have been dropped because the buffer was full, the handler periodically logs a
+ * summary entry stating the number of dropped entries under the {@value #DROPPED_ENTRIES_KEY} key.
+ *
+ * <p>If the formatter of the target handler is a {@link Formatter} with an {@link
+ * AdaptiveDegradation}, the handler reports the fill level of the buffer to it, so that log entries
+ * are made cheaper to produce while the buffer fills up.
+ *
+ * <p>If the target handler is a {@link Utf8ConsoleHandler}, the background thread periodically
+ * {@linkplain Utf8ConsoleHandler#writePending(boolean) writes} the log entries that the {@link
+ * Formatter} holds back, such as the collapsed log entries of runs of duplicates and the summaries
+ * of rate-limited log entries of loggers that have gone quiet.
+ *
+ * <p>When the handler is {@linkplain #close() closed}, all buffered log entries are written before
+ * the background thread stops.
+ *
+ * <p>If you have a {@code logging.properties} file (see {@link
+ * java.util.logging.LogManager#readConfiguration(java.io.InputStream)}), you can use this handler
+ * by setting the following properties:
+ *
+ * {@snippet lang="properties" :
+ * handlers = eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler
+ * }
+ *
+ * @see Utf8ConsoleHandler
+ */
+public final class AsyncConsoleHandler extends ExtHandler {
+
+  /** The default number of log records that can be buffered. */
+  public static final int DEFAULT_QUEUE_LENGTH = 8192;
+
+  /** The default interval between two summaries of dropped log entries. */
+  public static final Duration DEFAULT_SUMMARY_INTERVAL = Duration.ofSeconds(10);
+
+  /** The key under which the number of dropped log entries is reported. */
+  public static final String DROPPED_ENTRIES_KEY = "droppedLogEntries";
+
+  private static final long MAX_CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long PENDING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long MAX_PRODUCER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** What to do with a log record when the buffer is full. */
+  public enum OverflowPolicy {
+
+    /** Wait until there is room in the buffer. */
+    BLOCK,
+
+    /** Drop the log record that is being published. */
+    DROP_NEWEST,
+
+    /**
+     * Drop the log record that is being published if its level is below the {@linkplain
+     * #setDropThreshold(Level) drop threshold}; wait for room in the buffer otherwise.
+     */
+    DROP_BELOW_SEVERITY,
+
+    /** Drop the oldest buffered log record to make room for the one that is being published. */
+    DROP_OLDEST,
+  }
+
+  private final RingBuffer<ExtLogRecord> queue;
+  private final ExtHandler target;
+  private final Consumer consumer;
+
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+  private volatile Level dropThreshold = Level.WARNING;
+
+  /**
+   * Constructs a handler that writes to standard output with a formatter created by {@link
+   * Formatter#load} and a buffer of {@value #DEFAULT_QUEUE_LENGTH} entries.
+   */
+  public AsyncConsoleHandler() {
+    this(DEFAULT_QUEUE_LENGTH);
+  }
+
+  /**
+   * Constructs a handler that writes to standard output with a formatter created by {@link
+   * Formatter#load}.
+   *
+   * @param queueLength the number of log records that can be buffered.
+   */
+  public AsyncConsoleHandler(int queueLength) {
+    this(
+        new Utf8ConsoleHandler(Formatter.load(Collections.emptyList(), Collections.emptyList())),
+        queueLength);
+  }
+
+  /**
+   * Constructs a handler that writes to standard output.
+   *
+   * @param formatter the formatter to use.
+   * @param queueLength the number of log records that can be buffered.
+   */
+  public AsyncConsoleHandler(Formatter formatter, int queueLength) {
+    this(new Utf8ConsoleHandler(formatter), queueLength);
+  }
+
+  /**
+   * Constructs a handler that passes log records on to another handler in the background.
+   *
+   * @param target the handler to publish log records to on the background thread.
+   * @param queueLength the number of log records that can be buffered.
+   */
+  public AsyncConsoleHandler(ExtHandler target, int queueLength) {
+    this.queue = new RingBuffer<>(queueLength);
+    this.target = target;
+    this.consumer = new Consumer(queue, target);
+    this.consumer.setDaemon(true);
+    this.consumer.start();
+  }
+
+  /**
+   * The policy applied when the buffer is full.
+   *
+   * @return the current {@link OverflowPolicy}.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Sets the policy applied when the buffer is full.
+   *
+   * <p>Defaults to {@link OverflowPolicy#BLOCK}.
+   *
+   * @param overflowPolicy the new {@link OverflowPolicy}.
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * The level below which log records are dropped under {@link
+   * OverflowPolicy#DROP_BELOW_SEVERITY}.
+   *
+   * @return the current drop threshold.
+   */
+  public Level getDropThreshold() {
+    return dropThreshold;
+  }
+
+  /**
+   * Sets the level below which log records are dropped under {@link
+   * OverflowPolicy#DROP_BELOW_SEVERITY}.
+   *
+   * <p>Defaults to {@link Level#WARNING}.
+   *
+   * @param dropThreshold the new drop threshold.
+   */
+  public void setDropThreshold(Level dropThreshold) {
+    this.dropThreshold = dropThreshold;
+  }
+
+  /**
+   * Sets the minimum interval between two summaries of dropped log entries.
+   *
+   * <p>Defaults to {@link #DEFAULT_SUMMARY_INTERVAL}.
+   *
+   * @param summaryInterval the new summary interval. Must be positive.
+   */
+  public void setSummaryInterval(Duration summaryInterval) {
+    if (summaryInterval.isNegative() || summaryInterval.isZero()) {
+      throw new IllegalArgumentException("summaryInterval must be positive: " + summaryInterval);
+    }
+
+    consumer.summaryIntervalNanos = summaryInterval.toNanos();
+  }
+
+  /**
+   * The number of log entries dropped since the last summary was written.
+   *
+   * @return the number of log entries not yet reported as dropped.
+   */
+  public long getDroppedEntryCount() {
+    return consumer.droppedEntries.sum();
+  }
+
+  @Override
+  protected void doPublish(ExtLogRecord logRecord) {
+    if (consumer.closed) {
+      target.publish(logRecord);
+      return;
+    }
+
+    // Drop log records that are not verbose-logged before paying for capturing their context.
+    if (!isVerboseLogged(logRecord)) {
+      return;
+    }
+
+    // The record is formatted on another thread, so capture everything that is thread-dependent.
+    if (isCallerCalculationRequired(logRecord)) {
+      logRecord.copyAll();
+    } else {
+      logRecord.disableCallerCalculation();
+      logRecord.copyMdc();
+    }
+
+    if (!enqueue(logRecord)) {
+      recordOverflow();
+      return;
+    }
+
+    // If the handler was closed in the meantime, the background thread may have exited without
+    // seeing the log record. Either this check or the drain in close() is sure to catch it.
+    if (consumer.closed) {
+      drain();
+      return;
+    }
+
+    if (consumer.parked) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  @Override
+  public boolean isCallerCalculationRequired() {
+    return target.isCallerCalculationRequired();
+  }
+
+  private boolean isVerboseLogged(ExtLogRecord logRecord) {
+    var formatter = target.getFormatter();
+    if (formatter instanceof Formatter) {
+      var verboseLogging = ((Formatter) formatter).getVerboseLogging();
+      if (verboseLogging != null && !verboseLogging.isLoggable(logRecord)) {
+        var metrics = ((Formatter) formatter).getMetrics();
+        if (metrics != null) {
+          metrics.recordDrop(DropReason.FILTERED);
+        }
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void recordOverflow() {
+    consumer.droppedEntries.increment();
+
+    var formatter = target.getFormatter();
+    if (formatter instanceof Formatter) {
+      var metrics = ((Formatter) formatter).getMetrics();
+      if (metrics != null) {
+        metrics.recordDrop(DropReason.OVERFLOW);
+      }
+    }
+  }
+
+  private boolean isCallerCalculationRequired(ExtLogRecord logRecord) {
+    var formatter = target.getFormatter();
+    if (formatter instanceof Formatter) {
+      return ((Formatter) formatter).isCallerCalculationRequired(logRecord.getLevel());
+    }
+    return target.isCallerCalculationRequired();
+  }
+
+  private boolean enqueue(ExtLogRecord logRecord) {
+    var parkNanos = 1L;
+    while (!queue.offer(logRecord)) {
+      switch (overflowPolicy) {
+        case DROP_NEWEST:
+          return false;
+
+        case DROP_OLDEST:
+          if (queue.poll() != null) {
+            recordOverflow();
+          }
+          continue;
+
+        case DROP_BELOW_SEVERITY:
+          if (logRecord.getLevel().intValue() < dropThreshold.intValue()) {
+            return false;
+          }
+          break;
+
+        case BLOCK:
+          break;
+      }
+
+      if (consumer.closed) {
+        target.publish(logRecord);
+        return true;
+      }
+
+      LockSupport.unpark(consumer);
+      LockSupport.parkNanos(this, parkNanos);
+      parkNanos = Math.min(parkNanos * 2, MAX_PRODUCER_PARK_NANOS);
+    }
+    return true;
+  }
+
+  @Override
+  public void flush() {
+    target.flush();
+    super.flush();
+  }
+
+  /**
+   * Writes all buffered log entries, stops the background thread, and closes the target handler.
+   */
+  @Override
+  public void close() {
+    consumer.closed = true;
+    LockSupport.unpark(consumer);
+
+    try {
+      consumer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      reportError("Interrupted while draining log buffer", e, ErrorManager.CLOSE_FAILURE);
+    }
+
+    // Log records enqueued after the background thread last looked at the queue.
+    drain();
+
+    target.close();
+    super.close();
+  }
+
+  /** Publishes the log records left in the queue on the current thread. */
+  private void drain() {
+    for (var logRecord = queue.poll(); logRecord != null; logRecord = queue.poll()) {
+      consumer.publish(logRecord);
+    }
+  }
+
+  /**
+   * The handler log records are passed on to by the background thread.
+   *
+   * @return the target handler.
+   */
+  public Handler getTarget() {
+    return target;
+  }
+
+  /** The background thread that passes buffered log records on to the target handler. */
+  private static final class Consumer extends Thread {
+
+    private final RingBuffer<ExtLogRecord> queue;
+    private final ExtHandler target;
+    private final LongAdder droppedEntries = new LongAdder();
+
+    private volatile long summaryIntervalNanos = DEFAULT_SUMMARY_INTERVAL.toNanos();
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    private Consumer(RingBuffer<ExtLogRecord> queue, ExtHandler target) {
+      super("googlecloud-jsonlogging-async");
+      this.queue = queue;
+      this.target = target;
+    }
+
+    @Override
+    public void run() {
+      var lastSummary = System.nanoTime();
+      var lastPending = lastSummary;
+
+      while (true) {
+        var logRecord = queue.poll();
+        if (logRecord != null) {
+          recordQueueDepth();
+          publish(logRecord);
+        }
+
+        var now = System.nanoTime();
+        if (now - lastSummary >= summaryIntervalNanos) {
+          publishDropSummary();
+          lastSummary = now;
+        }
+        if (now - lastPending >= PENDING_INTERVAL_NANOS) {
+          writePending();
+          lastPending = now;
+        }
+
+        if (logRecord != null) {
+          continue;
+        }
+
+        if (closed && queue.isEmpty()) {
+          break;
+        }
+
+        parked = true;
+        if (queue.isEmpty() && !closed) {
+          LockSupport.parkNanos(Math.min(summaryIntervalNanos, MAX_CONSUMER_PARK_NANOS));
+        }
+        parked = false;
+      }
+
+      publishDropSummary();
+    }
+
+    private void publishDropSummary() {
+      var dropped = droppedEntries.sumThenReset();
+      if (dropped == 0) {
+        return;
+      }
+
+      var summary =
+          new ExtLogRecord(
+              Level.WARNING,
+              String.format("Dropped %d log entries because the log buffer was full.", dropped),
+              ExtLogRecord.FormatStyle.NO_FORMAT,
+              AsyncConsoleHandler.class.getName());
+      summary.setLoggerName(AsyncConsoleHandler.class.getName());
+      summary.setParameters(new Object[] {KeyValueParameter.of(DROPPED_ENTRIES_KEY, dropped)});
+      summary.disableCallerCalculation();
+      publish(summary);
+    }
+
+    /** Writes the log entries held back by the formatter whose time has come. */
+    private void writePending() {
+      if (target instanceof Utf8ConsoleHandler) {
+        ((Utf8ConsoleHandler) target).writePending(false);
+      }
+    }
+
+    /** Reports the fill level of the queue to the {@link AdaptiveDegradation}, if any. */
+    private void recordQueueDepth() {
+      var formatter = target.getFormatter();
+      if (formatter instanceof Formatter) {
+        var adaptiveDegradation = ((Formatter) formatter).getAdaptiveDegradation();
+        if (adaptiveDegradation != null) {
+          adaptiveDegradation.recordQueueDepth(queue.size(), queue.capacity());
+        }
+      }
+    }
+
+    private void publish(ExtLogRecord logRecord) {
+      try {
+        target.publish(logRecord);
+      } catch (RuntimeException e) {
+        ExtHandler.reportError(
+            target, "Error publishing log message", e, ErrorManager.GENERIC_FAILURE);
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.logmanager;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler.OverflowPolicy;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+
+/**
+ * Creates the root handler installed by {@link DefaultConfiguratorFactory} and {@link
+ * DefaultEmbeddedConfigurator}.
+ *
+ * <p>The handler is selected through system properties:
+ *
+ * <dl>
+ *   <dt>{@value #ASYNC_PROPERTY}
+ *   <dd>If {@code true}, use an {@link AsyncConsoleHandler}. Otherwise, use a {@link
+ *       DefaultConsoleHandler}.
+ *   <dt>{@value #ASYNC_QUEUE_LENGTH_PROPERTY}
+ *   <dd>The number of log records the {@link AsyncConsoleHandler} can buffer.
+ *   <dt>{@value #ASYNC_OVERFLOW_POLICY_PROPERTY}
+ *   <dd>The {@link OverflowPolicy} of the {@link AsyncConsoleHandler}, e.g. {@code drop-oldest}.
+ *   <dt>{@value #ASYNC_DROP_THRESHOLD_PROPERTY}
+ *   <dd>The drop threshold of the {@link AsyncConsoleHandler}, e.g. {@code WARNING}.
+ *   <dt>{@value #ASYNC_SUMMARY_INTERVAL_PROPERTY}
+ *   <dd>The interval between two summaries of dropped log entries, e.g. {@code PT10S}.
+ * </dl>
+ */
+final class ConsoleHandlers {
+
+  private static final String PREFIX = "eu.mulk.quarkus.googlecloud.jsonlogging.";
+
+  static final String ASYNC_PROPERTY = PREFIX + "async";
+  static final String ASYNC_QUEUE_LENGTH_PROPERTY = PREFIX + "async.queueLength";
+  static final String ASYNC_OVERFLOW_POLICY_PROPERTY = PREFIX + "async.overflowPolicy";
+  static final String ASYNC_DROP_THRESHOLD_PROPERTY = PREFIX + "async.dropThreshold";
+  static final String ASYNC_SUMMARY_INTERVAL_PROPERTY = PREFIX + "async.summaryInterval";
+
+  private ConsoleHandlers() {}
+
+  @SuppressWarnings({"java:S2095", "resource"})
+  static Handler fromSystemProperties() {
+    if (!Boolean.getBoolean(ASYNC_PROPERTY)) {
+      return new DefaultConsoleHandler();
+    }
+
+    var queueLength =
+        Integer.getInteger(ASYNC_QUEUE_LENGTH_PROPERTY, AsyncConsoleHandler.DEFAULT_QUEUE_LENGTH);
+    var handler = new AsyncConsoleHandler(queueLength);
+
+    var overflowPolicy = System.getProperty(ASYNC_OVERFLOW_POLICY_PROPERTY);
+    if (overflowPolicy != null) {
+      handler.setOverflowPolicy(
+          OverflowPolicy.valueOf(overflowPolicy.replace('-', '_').toUpperCase(Locale.ROOT)));
+    }
+
+    var dropThreshold = System.getProperty(ASYNC_DROP_THRESHOLD_PROPERTY);
+    if (dropThreshold != null) {
+      handler.setDropThreshold(Level.parse(dropThreshold.toUpperCase(Locale.ROOT)));
+    }
+
+    var summaryInterval = System.getProperty(ASYNC_SUMMARY_INTERVAL_PROPERTY);
+    if (summaryInterval != null) {
+      handler.setSummaryInterval(Duration.parse(summaryInterval));
+    }
+
+    return handler;
+  }
+}
@@ -16,6 +16,13 @@ import org.jboss.logmanager.handlers.ConsoleHandler;
  * provider of the {@link EmbeddedConfigurator} interface (under the name of {@code
  * org.jboss.logmanager.EmbeddedConfigurator}) to automatically register a {@link ConsoleHandler}
  * using {@link Formatter} as the default log output method for the application.
+ *
+ * <p>If the {@code eu.mulk.quarkus.googlecloud.jsonlogging.async} system property is set to {@code
+ * true}, an {@link AsyncConsoleHandler} is registered instead. It can be tuned through the {@code
+ * eu.mulk.quarkus.googlecloud.jsonlogging.async.queueLength}, {@code
+ * eu.mulk.quarkus.googlecloud.jsonlogging.async.overflowPolicy}, {@code
+ * eu.mulk.quarkus.googlecloud.jsonlogging.async.dropThreshold}, and {@code
+ * eu.mulk.quarkus.googlecloud.jsonlogging.async.summaryInterval} system properties.
  */
 public final class DefaultEmbeddedConfigurator implements EmbeddedConfigurator {
 
@@ -27,7 +34,7 @@ public final class DefaultEmbeddedConfigurator implements EmbeddedConfigurator {
    */
   @SuppressWarnings({"java:S2095", "resource"})
   public DefaultEmbeddedConfigurator() {
-    rootHandlers = new Handler[] {createConsoleHandler()};
+    rootHandlers = new Handler[] {ConsoleHandlers.fromSystemProperties()};
   }
 
   /**
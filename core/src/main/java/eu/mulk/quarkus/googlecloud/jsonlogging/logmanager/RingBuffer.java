@@ -0,0 +1,133 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.logmanager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A bounded, lock-free queue backed by a preallocated array.
+ *
+ * <p>Implements Dmitry Vyukov's bounded queue algorithm: each slot carries a sequence number that
+ * tells producers and consumers whether the slot is free for writing or ready for reading.
+ *
+ * <p>The queue is designed for many producers and a single regular consumer, but {@link #poll()}
+ * is safe to call from producers as well (which is how the oldest element is evicted when the
+ * queue is full).
+ */
+final class RingBuffer<E> {
+
+  private final AtomicReferenceArray<@Nullable E> elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Constructs a {@link RingBuffer}.
+   *
+   * @param capacity the minimum capacity of the queue. Rounded up to the next power of two.
+   */
+  RingBuffer(int capacity) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("capacity out of range: " + capacity);
+    }
+
+    var actualCapacity = Integer.highestOneBit(capacity);
+    if (actualCapacity < capacity) {
+      actualCapacity <<= 1;
+    }
+
+    elements = new AtomicReferenceArray<>(actualCapacity);
+    sequences = new AtomicLongArray(actualCapacity);
+    for (var i = 0; i < actualCapacity; i++) {
+      sequences.set(i, i);
+    }
+    mask = actualCapacity - 1;
+  }
+
+  /** The number of elements the queue can hold. */
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Inserts an element if there is room for it.
+   *
+   * @return {@code true} if the element was inserted, {@code false} if the queue was full.
+   */
+  boolean offer(E element) {
+    var position = tail.get();
+    while (true) {
+      var index = (int) (position & mask);
+      var sequence = sequences.get(index);
+      var difference = sequence - position;
+
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest element.
+   *
+   * @return the removed element, or {@code null} if the queue was empty.
+   */
+  @Nullable E poll() {
+    var position = head.get();
+    while (true) {
+      var index = (int) (position & mask);
+      var sequence = sequences.get(index);
+      var difference = sequence - (position + 1);
+
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          var element = elements.get(index);
+          elements.lazySet(index, null);
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * The number of elements in the queue.
+   *
+   * <p>Only an estimate while elements are being inserted or removed concurrently.
+   */
+  int size() {
+    var size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+
+  /**
+   * Whether the queue is empty.
+   *
+   * <p>May return {@code false} for a short while after a producer has claimed a slot but before it
+   * has published its element.
+   */
+  boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+}
@@ -0,0 +1,169 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.logmanager;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.logging.ErrorManager;
+import org.jboss.logmanager.ExtHandler;
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * A handler that writes log entries formatted by {@link Formatter} to standard output as UTF-8
+ * bytes.
+ *
+ * <p>In contrast to {@link DefaultConsoleHandler}, which passes each formatted log entry through a
+ * {@link String} and a {@link java.io.Writer}, this handler lets {@link Formatter} encode the log
+ * entry directly into a reusable byte buffer, which is then written to the underlying file
+ * descriptor in a single call.
+ *
+ * <p>Log entries that the {@link Formatter} holds back, such as the collapsed log entries of runs
+ * of duplicates and the summaries of rate-limited log entries, are written when the handler is
+ * {@linkplain #close() closed}.
+ *
+ * <p>If you have a {@code logging.properties} file (see {@link
+ * java.util.logging.LogManager#readConfiguration(java.io.InputStream)}), you can use this handler
+ * by setting the following properties:
+ *
+ * {@snippet lang="properties" :
+ * handlers = eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.Utf8ConsoleHandler
+ * }
+ *
+ * <p>If a formatter other than {@link Formatter} is set on this handler, its output is encoded as
+ * UTF-8 and written in the same way.
+ *
+ * @see DefaultConsoleHandler
+ */
+public final class Utf8ConsoleHandler extends ExtHandler {
+
+  private final OutputStream out;
+
+  /**
+   * Constructs a handler that writes to standard output with a formatter created by {@link
+   * Formatter#load}.
+   */
+  public Utf8ConsoleHandler() {
+    this(Formatter.load(Collections.emptyList(), Collections.emptyList()));
+  }
+
+  /**
+   * Constructs a handler that writes to standard output.
+   *
+   * @param formatter the formatter to use.
+   */
+  public Utf8ConsoleHandler(Formatter formatter) {
+    this(formatter, new FileOutputStream(FileDescriptor.out));
+  }
+
+  /**
+   * Constructs a handler that writes to an arbitrary {@link OutputStream}.
+   *
+   * <p>Each log entry is passed to {@code out} in a single call to {@link
+   * OutputStream#write(byte[], int, int)}. Calls are serialized by the handler.
+   *
+   * @param formatter the formatter to use.
+   * @param out the stream to write log entries to.
+   */
+  public Utf8ConsoleHandler(Formatter formatter, OutputStream out) {
+    this.out = new SerializedOutputStream(out);
+    setFormatter(formatter);
+  }
+
+  @Override
+  protected void doPublish(ExtLogRecord logRecord) {
+    var formatter = getFormatter();
+    try {
+      if (formatter instanceof Formatter) {
+        ((Formatter) formatter).format(logRecord, out);
+      } else if (formatter != null) {
+        var formatted = formatter.format(logRecord);
+        if (!formatted.isEmpty()) {
+          out.write(formatted.getBytes(UTF_8));
+        }
+      }
+    } catch (Exception e) {
+      reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+      return;
+    }
+
+    super.doPublish(logRecord);
+  }
+
+  /**
+   * Writes the log entries that the {@link Formatter} holds back.
+   *
+   * <p>Does nothing if the formatter of this handler is not a {@link Formatter}.
+   *
+   * @param all whether to write all log entries that are held back, or only those that are not
+   *     going to be written before a later log entry anymore.
+   * @see Formatter#formatPending(OutputStream, boolean)
+   */
+  public void writePending(boolean all) {
+    var formatter = getFormatter();
+    if (!(formatter instanceof Formatter)) {
+      return;
+    }
+
+    try {
+      ((Formatter) formatter).formatPending(out, all);
+    } catch (Exception e) {
+      reportError("Error writing log message", e, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      reportError("Error flushing log output", e, ErrorManager.FLUSH_FAILURE);
+    }
+    super.flush();
+  }
+
+  /** Writes all log entries that the {@link Formatter} holds back and closes the handler. */
+  @Override
+  public void close() {
+    writePending(true);
+    flush();
+    super.close();
+  }
+
+  /**
+   * An {@link OutputStream} that serializes whole-array writes to an underlying stream.
+   *
+   * <p>Formatting happens outside of the lock; only the final write of each log entry is
+   * serialized.
+   */
+  private static final class SerializedOutputStream extends OutputStream {
+
+    private final OutputStream delegate;
+
+    private SerializedOutputStream(OutputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      delegate.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      delegate.write(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      delegate.flush();
+    }
+  }
+}
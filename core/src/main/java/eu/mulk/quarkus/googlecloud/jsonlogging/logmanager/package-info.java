@@ -18,6 +18,10 @@
  * java.util.logging.LogManager#readConfiguration(java.io.InputStream)}. This is particularly useful
  * when used in conjunction with frameworks other than Quarkus (such as Spring Boot). See the class
  * documentation for details.
+ *
+ * <p>{@link eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.Utf8ConsoleHandler} can be used in
+ * the same way. It writes the formatter's UTF-8 output to standard output directly without going
+ * through a {@link String} and a {@link java.io.Writer}.
  */
 @NullMarked
 package eu.mulk.quarkus.googlecloud.jsonlogging.logmanager;
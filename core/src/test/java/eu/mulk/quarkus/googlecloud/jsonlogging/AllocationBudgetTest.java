@@ -0,0 +1,118 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import org.jboss.logmanager.ExtLogRecord;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that formatting the reference records of {@link FormatterTest} stays within the budget in
+ * {@code allocation-budget.properties}.
+ *
+ * <p>The budgets cover what the formatter allocates itself. The copy of the mapped diagnostic
+ * context that {@link ExtLogRecord#getMdcCopy()} makes for every log entry is made in advance (see
+ * {@link FormatterTest#withMdcCopiedInAdvance}), as its size depends on the log manager and on the
+ * context rather than on the formatter.
+ */
+class AllocationBudgetTest {
+
+  private static final int ITERATIONS = 10_000;
+
+  @Test
+  void simpleRecord() throws IOException {
+    checkBudget("simple", FormatterTest.makeSimpleRecord());
+  }
+
+  @Test
+  void structuredRecord() throws IOException {
+    checkBudget("structured", FormatterTest.makeStructuredRecord());
+  }
+
+  @Test
+  void massivelyStructuredRecord() throws IOException {
+    checkBudget("massivelyStructured", FormatterTest.makeMassivelyStructuredRecord());
+  }
+
+  @Test
+  void nestedRecord() throws IOException {
+    checkBudget("nested", FormatterTest.makeNestedRecord());
+  }
+
+  @Test
+  void thrownRecord() throws IOException {
+    checkBudget("thrown", FormatterTest.makeThrownRecord());
+  }
+
+  private static void checkBudget(String recordName, ExtLogRecord logRecord) throws IOException {
+    var budgets = loadBudget();
+    var formatter = new Formatter(List.of(), List.of());
+    var out = OutputStream.nullOutputStream();
+    var measuredRecord = FormatterTest.withMdcCopiedInAdvance(logRecord);
+
+    checkBudget(budgets, recordName + ".stream", () -> formatter.format(measuredRecord, out));
+    checkBudget(budgets, recordName + ".string", () -> formatter.format(measuredRecord));
+  }
+
+  private static void checkBudget(Properties budgets, String budgetKey, Call call)
+      throws IOException {
+    var budget = Long.parseLong(Objects.requireNonNull(budgets.getProperty(budgetKey), budgetKey));
+    var allocated = bytesAllocatedPerCall(call);
+    assertTrue(
+        allocated <= budget,
+        budgetKey + " allocates " + allocated + " bytes per call, budget is " + budget);
+  }
+
+  /**
+   * Measures the number of bytes allocated by the current thread per call of {@code call}.
+   *
+   * <p>{@code call} is called often enough before the measurement for caches to be filled and the
+   * JIT compiler to settle. The test is skipped if the JVM does not count allocated bytes.
+   */
+  static long bytesAllocatedPerCall(Call call) throws IOException {
+    var threadMXBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(
+        threadMXBean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+
+    var allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+    var threadId = Thread.currentThread().getId();
+
+    for (var i = 0; i < ITERATIONS; i++) {
+      call.run();
+    }
+
+    var allocatedBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+    for (var i = 0; i < ITERATIONS; i++) {
+      call.run();
+    }
+    var allocatedAfter = allocationMXBean.getThreadAllocatedBytes(threadId);
+
+    return (allocatedAfter - allocatedBefore) / ITERATIONS;
+  }
+
+  private static Properties loadBudget() throws IOException {
+    var budgets = new Properties();
+    try (var in =
+        AllocationBudgetTest.class.getResourceAsStream("allocation-budget.properties")) {
+      budgets.load(Objects.requireNonNull(in, "allocation-budget.properties"));
+    }
+    return budgets;
+  }
+
+  /** A piece of code whose allocations are measured. */
+  @FunctionalInterface
+  interface Call {
+    void run() throws IOException;
+  }
+}
@@ -6,8 +6,13 @@ package eu.mulk.quarkus.googlecloud.jsonlogging;
 
 import static java.util.logging.Level.FINEST;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.LogRecord;
+import org.jboss.logmanager.ExtLogRecord;
 import org.jboss.logmanager.formatters.Formatters;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
@@ -21,11 +26,27 @@ public class FormatterBenchmark {
   private static final LogRecord NULL_LOG_RECORD = new LogRecord(FINEST, "");
   private static final java.util.logging.Formatter NULL_FORMATTER = Formatters.nullFormatter();
 
+  private static final String LONG_MESSAGE =
+      "Request processed successfully for user 12345 in region europe-west1. ".repeat(60);
+
+  private static final String ESCAPE_HEAVY_MESSAGE =
+      "{\"path\":\"C:\\\\temp\",\n\t\"value\":\"\u0001\u001f\"} ".repeat(60);
+
+  private static final int CAUSE_CHAIN_LENGTH = 20;
+  private static final int PROVIDER_COUNT = 16;
+
   private LogRecord simpleLogRecord = NULL_LOG_RECORD;
   private LogRecord structuredLogRecord = NULL_LOG_RECORD;
   private LogRecord massivelyStructuredLogRecord = NULL_LOG_RECORD;
   private LogRecord nestedLogRecord = NULL_LOG_RECORD;
+  private LogRecord thrownLogRecord = NULL_LOG_RECORD;
+  private LogRecord deepCauseChainLogRecord = NULL_LOG_RECORD;
+  private LogRecord longMessageLogRecord = NULL_LOG_RECORD;
+  private LogRecord escapeHeavyLogRecord = NULL_LOG_RECORD;
   private java.util.logging.Formatter formatter = NULL_FORMATTER;
+  private Formatter byteFormatter = new Formatter(List.of(), List.of());
+  private Formatter manyProvidersFormatter = new Formatter(List.of(), List.of());
+  private OutputStream nullOutputStream = OutputStream.nullOutputStream();
 
   @Setup
   public void setup() {
@@ -33,7 +54,13 @@ public class FormatterBenchmark {
     structuredLogRecord = FormatterTest.makeStructuredRecord();
     massivelyStructuredLogRecord = FormatterTest.makeMassivelyStructuredRecord();
     nestedLogRecord = FormatterTest.makeNestedRecord();
+    thrownLogRecord = FormatterTest.makeThrownRecord();
+    deepCauseChainLogRecord = makeDeepCauseChainRecord();
+    longMessageLogRecord = makeMessageRecord(LONG_MESSAGE);
+    escapeHeavyLogRecord = makeMessageRecord(ESCAPE_HEAVY_MESSAGE);
     formatter = new Formatter(List.of(), List.of());
+    byteFormatter = new Formatter(List.of(), List.of());
+    manyProvidersFormatter = new Formatter(makeParameterProviders(), makeLabelProviders());
   }
 
   @Benchmark
@@ -57,4 +84,103 @@ public class FormatterBenchmark {
     var f = formatter.format(nestedLogRecord);
     blackhole.consume(f);
   }
+
+  @Benchmark
+  public void thrownLogRecord(Blackhole blackhole) {
+    var f = formatter.format(thrownLogRecord);
+    blackhole.consume(f);
+  }
+
+  @Benchmark
+  public void simpleLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(simpleLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void structuredLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(structuredLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void massivelyStructuredLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(massivelyStructuredLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void nestedLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(nestedLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void thrownLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(thrownLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void deepCauseChainLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(deepCauseChainLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void longMessageLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(longMessageLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void escapeHeavyLogRecordBytes() throws IOException {
+    byteFormatter.format(ExtLogRecord.wrap(escapeHeavyLogRecord), nullOutputStream);
+  }
+
+  @Benchmark
+  public void manyProvidersLogRecordBytes() throws IOException {
+    manyProvidersFormatter.format(ExtLogRecord.wrap(simpleLogRecord), nullOutputStream);
+  }
+
+  private static ExtLogRecord makeMessageRecord(String message) {
+    var logRecord = FormatterTest.makeSimpleRecord();
+    logRecord.setMessage(message);
+    return logRecord;
+  }
+
+  private static ExtLogRecord makeDeepCauseChainRecord() {
+    Throwable thrown = new IllegalStateException("root cause");
+    for (var i = 1; i < CAUSE_CHAIN_LENGTH; i++) {
+      thrown = new RuntimeException("wrapper " + i, thrown);
+    }
+
+    var logRecord = FormatterTest.makeSimpleRecord();
+    logRecord.setLevel(org.jboss.logmanager.Level.ERROR);
+    logRecord.setThrown(thrown);
+    return logRecord;
+  }
+
+  private static List<StructuredParameterProvider> makeParameterProviders() {
+    var providers = new ArrayList<StructuredParameterProvider>();
+    for (var i = 0; i < PROVIDER_COUNT; i++) {
+      var parameter = KeyValueParameter.of("parameter" + i, "value" + i);
+      providers.add(
+          new StructuredParameterProvider() {
+            @Override
+            public StructuredParameter getParameter(Context context) {
+              return parameter;
+            }
+          });
+    }
+    return providers;
+  }
+
+  private static List<LabelProvider> makeLabelProviders() {
+    var providers = new ArrayList<LabelProvider>();
+    for (var i = 0; i < PROVIDER_COUNT; i++) {
+      var labels = List.of(Label.of("label" + i, "value" + i));
+      providers.add(
+          new LabelProvider() {
+            @Override
+            public Collection<Label> getLabels(Context context) {
+              return labels;
+            }
+          });
+    }
+    return providers;
+  }
 }
@@ -4,13 +4,35 @@
 
 package eu.mulk.quarkus.googlecloud.jsonlogging;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler;
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.Utf8ConsoleHandler;
+import jakarta.json.JsonObjectBuilder;
 import jakarta.json.spi.JsonProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jboss.logmanager.ExtLogRecord;
 import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
 import org.junit.jupiter.api.Test;
 
 class FormatterTest {
@@ -39,10 +61,49 @@ class FormatterTest {
         List.of(formattingResult));
   }
 
+  @Test
+  void sourceLocationMode() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.WARNING_AND_ABOVE);
+
+    var infoRecord = makeSimpleRecord();
+    var warningRecord =
+        new ExtLogRecord(Level.WARN, "Hello, world!", FormatterTest.class.getName());
+
+    assertTrue(formatter.isCallerCalculationRequired());
+    assertFalse(formatter.format(infoRecord).contains("logging.googleapis.com/sourceLocation"));
+    assertTrue(formatter.format(warningRecord).contains("logging.googleapis.com/sourceLocation"));
+
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+
+    assertFalse(formatter.isCallerCalculationRequired());
+    assertEquals(
+        "{\"message\":\"Hello, world!\","
+            + "\"severity\":\"INFO\","
+            + "\"timestamp\":{\"seconds\":0,\"nanos\":0}"
+            + "}\n",
+        formatter.format(makeSimpleRecord()).replaceAll("\\d+", "0"));
+  }
+
   static ExtLogRecord makeSimpleRecord() {
     return new ExtLogRecord(Level.INFO, "Hello, world!", FormatterTest.class.getName());
   }
 
+  /**
+   * Copies a log record into one that hands out a copy of its mapped diagnostic context made in
+   * advance, so that measuring the allocations of the formatter leaves out the copy that {@link
+   * ExtLogRecord#getMdcCopy()} makes on every call.
+   */
+  static ExtLogRecord withMdcCopiedInAdvance(ExtLogRecord logRecord) {
+    var mdcCopy = logRecord.getMdcCopy();
+    return new ExtLogRecord(logRecord) {
+      @Override
+      public Map<String, String> getMdcCopy() {
+        return mdcCopy;
+      }
+    };
+  }
+
   @Test
   void structuredRecord() {
     var parameterProvider =
@@ -201,4 +262,1003 @@ class FormatterTest {
         });
     return logRecord;
   }
+
+  @Test
+  void streamingRecord() {
+    var logRecord = makeSimpleRecord();
+    logRecord.setParameters(
+        new Object[] {
+          new StructuredParameter() {
+            @Override
+            public JsonObjectBuilder json() {
+              throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void writeJson(Writer writer) {
+              writer.write("aString", "a\"b");
+              writer.write("aLong", -42L);
+              writer.write("aBoolean", true);
+              writer.write("anObject", JSON.createObjectBuilder().add("a", 1).build());
+            }
+          },
+          KeyValueParameter.of("key", "value"),
+        });
+
+    var formatter = new Formatter(List.of(), List.of());
+    var formattingResult = formatter.format(logRecord);
+    assertLinesMatch(
+        List.of(
+            "\\{"
+                + "\"aString\":\"a\\\\\"b\","
+                + "\"aLong\":-42,"
+                + "\"aBoolean\":true,"
+                + "\"anObject\":\\{\"a\":1\\},"
+                + "\"key\":\"value\","
+                + "\"logging.googleapis.com/sourceLocation\":"
+                + "\\{\"file\":\"ReflectionUtils.java\","
+                + "\"line\":\"\\d+\","
+                + "\"function\":\"org.junit.platform.commons.util.ReflectionUtils.invokeMethod\""
+                + "\\},"
+                + "\"message\":\"Hello, world!\","
+                + "\"severity\":\"INFO\","
+                + "\"timestamp\":\\{\"seconds\":\\d+,\"nanos\":\\d+\\}"
+                + "\\}\n"),
+        List.of(formattingResult));
+  }
+
+  @Test
+  void keyValueParameters() {
+    var parameters =
+        new KeyValueParameter[] {
+          KeyValueParameter.of("string", "a\"b\n"),
+          KeyValueParameter.of("int", Integer.MIN_VALUE),
+          KeyValueParameter.of("long", Long.MAX_VALUE),
+          KeyValueParameter.of("double", 2.5),
+          KeyValueParameter.of("integralDouble", -3.0),
+          KeyValueParameter.of("smallDouble", 1.0e-9),
+          KeyValueParameter.of("largeDouble", 1.0e300),
+          KeyValueParameter.of("boolean", true),
+          KeyValueParameter.of("bigDecimal", new BigDecimal("1.50")),
+          KeyValueParameter.of("bigInteger", BigInteger.TEN.pow(30)),
+        };
+
+    var builderParameters = new StructuredParameter[parameters.length];
+    for (var i = 0; i < parameters.length; i++) {
+      var parameter = parameters[i];
+      builderParameters[i] =
+          () -> JSON.createObjectBuilder().add(parameter.key(), parameter.value());
+    }
+
+    var logRecord = makeSimpleRecord();
+    logRecord.setParameters(parameters);
+    var builderLogRecord = makeSimpleRecord();
+    builderLogRecord.setInstant(logRecord.getInstant());
+    builderLogRecord.setParameters(builderParameters);
+
+    var formatter = new Formatter(List.of(), List.of());
+    assertEquals(formatter.format(builderLogRecord), formatter.format(logRecord));
+
+    assertEquals(JSON.createValue(2.5), KeyValueParameter.of("double", 2.5).value());
+    assertEquals(KeyValueParameter.of("n", 1), KeyValueParameter.of("n", 1L));
+  }
+
+  @Test
+  void keyValueParameterEquality() {
+    assertEquals(KeyValueParameter.of("s", "a"), KeyValueParameter.of("s", "a"));
+    assertEquals(KeyValueParameter.of("d", 0.0), KeyValueParameter.of("d", -0.0));
+    assertEquals(KeyValueParameter.of("n", 1L), KeyValueParameter.of("n", BigInteger.ONE));
+    assertFalse(KeyValueParameter.of("s", "1").equals(KeyValueParameter.of("s", 1)));
+    assertFalse(KeyValueParameter.of("n", 1).equals(KeyValueParameter.of("n", 1.0)));
+    assertFalse(KeyValueParameter.of("n", 1).equals(KeyValueParameter.of("m", 1)));
+    assertFalse(KeyValueParameter.of("b", true).equals(KeyValueParameter.of("b", false)));
+  }
+
+  @Test
+  void thrownRecord() {
+    var logRecord = makeThrownRecord();
+
+    var expectedMessage = new StringWriter();
+    try (var printWriter = new PrintWriter(expectedMessage)) {
+      printWriter.append("Hello, world!");
+      printWriter.println();
+      logRecord.getThrown().printStackTrace(printWriter);
+    }
+    var expectedMessageJson = new JsonBuffer();
+    expectedMessageJson.appendJsonString(expectedMessage.toString());
+
+    var formatter = new Formatter(List.of(), List.of());
+    var formattingResult = formatter.format(logRecord);
+    assertTrue(
+        formattingResult.contains("\"message\":" + expectedMessageJson + ","), formattingResult);
+  }
+
+  static ExtLogRecord makeThrownRecord() {
+    var cause = new IllegalStateException("inner \"quoted\"\n\tmessage");
+    var suppressed = new IOException("suppressed");
+    suppressed.addSuppressed(new IllegalArgumentException("nested suppressed"));
+    var thrown = new RuntimeException("outer", cause);
+    thrown.addSuppressed(suppressed);
+
+    var logRecord = makeSimpleRecord();
+    logRecord.setLevel(Level.ERROR);
+    logRecord.setThrown(thrown);
+    return logRecord;
+  }
+
+  @Test
+  void compactThrownRecord() {
+    var cause = new IllegalStateException("inner");
+    cause.setStackTrace(
+        new StackTraceElement[] {
+          frame("io.vertx.core.Inner", 1),
+          frame("com.example.Repository", 2),
+          frame("org.hibernate.Session", 3),
+          frame("com.example.Service", 4),
+          frame("java.lang.Thread", 5),
+        });
+    var thrown = new RuntimeException("outer", cause);
+    thrown.setStackTrace(
+        new StackTraceElement[] {
+          frame("com.example.Resource", 10),
+          frame("io.vertx.core.A", 11),
+          frame("io.vertx.core.B", 12),
+          frame("com.example.Handler", 13),
+          frame("io.vertx.core.C", 14),
+          frame("io.vertx.core.D", 15),
+          frame("io.vertx.core.E", 16),
+          frame("com.example.Main", 17),
+          frame("com.example.Service", 4),
+          frame("java.lang.Thread", 5),
+        });
+
+    var logRecord = makeSimpleRecord();
+    logRecord.setThrown(thrown);
+
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setMaxStackTraceFrames(4);
+    formatter.setFoldedStackTracePackages(List.of("io.vertx.", "org.hibernate."));
+    var formattingResult = formatter.format(logRecord);
+
+    var n = System.lineSeparator().replace("\r", "\\r").replace("\n", "\\n");
+    assertTrue(
+        formattingResult.contains(
+            "\"message\":\"Hello, world!"
+                + n
+                + "java.lang.RuntimeException: outer"
+                + n
+                + "\\tat com.example.Resource.run(Resource.java:10)"
+                + n
+                + "\\t... 2 frames in io.vertx."
+                + n
+                + "\\tat com.example.Handler.run(Handler.java:13)"
+                + n
+                + "\\t... 3 frames in io.vertx."
+                + n
+                + "\\t... 3 more"
+                + n
+                + "Caused by: java.lang.IllegalStateException: inner"
+                + n
+                + "\\tat io.vertx.core.Inner.run(Inner.java:1)"
+                + n
+                + "\\tat com.example.Repository.run(Repository.java:2)"
+                + n
+                + "\\tat org.hibernate.Session.run(Session.java:3)"
+                + n
+                + "\\t... 2 more"
+                + n
+                + "\","),
+        formattingResult);
+  }
+
+  @Test
+  void repeatedStackTrace() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setRepeatedStackTraceWindow(Duration.ofMinutes(1));
+
+    // The exceptions are created at the same call site, so their fingerprints are the same.
+    var results = new ArrayList<String>();
+    for (var i = 0; i < 2; i++) {
+      results.add(formatter.format(makeThrownRecord()));
+    }
+    var first = results.get(0);
+    var second = results.get(1);
+    var other = makeSimpleRecord();
+    other.setThrown(new IllegalArgumentException("other"));
+    var unrelated = formatter.format(other);
+
+    var fingerprintStart = first.indexOf("\"exceptionFingerprint\":");
+    var fingerprint = first.substring(fingerprintStart, first.indexOf(',', fingerprintStart));
+    assertTrue(fingerprint.matches("\"exceptionFingerprint\":\"[0-9a-f]{16}\""), first);
+    assertTrue(first.contains(fingerprint + ",\"exceptionOccurrences\":1,"), first);
+    assertTrue(first.contains("\\tat "), first);
+
+    var n = System.lineSeparator().replace("\r", "\\r").replace("\n", "\\n");
+    assertTrue(
+        second.contains(
+            fingerprint
+                + ",\"exceptionOccurrences\":2,"
+                + "\"message\":\"Hello, world!"
+                + n
+                + "java.lang.RuntimeException: outer\","),
+        second);
+
+    assertTrue(unrelated.contains("\"exceptionOccurrences\":1,"), unrelated);
+    assertFalse(unrelated.contains(fingerprint), unrelated);
+  }
+
+  private static StackTraceElement frame(String className, int lineNumber) {
+    var fileName = className.substring(className.lastIndexOf('.') + 1) + ".java";
+    return new StackTraceElement(className, "run", fileName, lineNumber);
+  }
+
+  @Test
+  void scopedProviders() {
+    var staticCalls = new AtomicInteger();
+    var loggerCalls = new AtomicInteger();
+
+    var staticParameterProvider =
+        new StructuredParameterProvider() {
+          @Override
+          public StructuredParameter getParameter() {
+            staticCalls.incrementAndGet();
+            return KeyValueParameter.of("version", "1.2.3");
+          }
+
+          @Override
+          public ProviderScope getParameterScope() {
+            return ProviderScope.STATIC;
+          }
+        };
+
+    var loggerLabelProvider =
+        new LabelProvider() {
+          @Override
+          public Collection<Label> getLabels(Context context) {
+            loggerCalls.incrementAndGet();
+            return List.of(Label.of("logger", String.valueOf(context.loggerName())));
+          }
+
+          @Override
+          public ProviderScope getLabelScope() {
+            return ProviderScope.LOGGER;
+          }
+        };
+
+    var formatter =
+        new Formatter(List.of(staticParameterProvider), List.of(loggerLabelProvider));
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+
+    var first = makeSimpleRecord();
+    first.setLoggerName("first");
+    var second = makeSimpleRecord();
+    second.setLoggerName("second");
+    var overridden = makeSimpleRecord();
+    overridden.setLoggerName("first");
+    overridden.setParameters(new Object[] {Label.of("logger", "overridden")});
+
+    var firstResult = formatter.format(first);
+    formatter.format(first);
+    var secondResult = formatter.format(second);
+    var overriddenResult = formatter.format(overridden);
+
+    assertEquals(1, staticCalls.get());
+    assertEquals(2, loggerCalls.get());
+    assertTrue(
+        firstResult.startsWith(
+            "{\"logging.googleapis.com/labels\":{\"logger\":\"first\"},\"version\":\"1.2.3\","));
+    assertTrue(
+        secondResult.startsWith(
+            "{\"logging.googleapis.com/labels\":{\"logger\":\"second\"},\"version\":"));
+    assertTrue(
+        overriddenResult.startsWith(
+            "{\"logging.googleapis.com/labels\":{\"logger\":\"overridden\"},\"version\":"));
+  }
+
+  @Test
+  void providerInvoker() {
+    var parameterProvider =
+        new StructuredParameterProvider() {
+          @Override
+          public StructuredParameter getParameter() {
+            return KeyValueParameter.of("one", 1);
+          }
+        };
+
+    var labelProvider =
+        new LabelProvider() {
+          @Override
+          public Collection<Label> getLabels() {
+            return List.of(Label.of("a", "b"));
+          }
+        };
+
+    var invocations = new AtomicInteger();
+    var knownClass = parameterProvider.getClass();
+    var providerInvoker =
+        new ProviderInvoker() {
+          @Override
+          public int parameterSlotOf(StructuredParameterProvider provider) {
+            return knownClass.isInstance(provider) ? 0 : -1;
+          }
+
+          @Override
+          public StructuredParameter getParameter(
+              int slot,
+              StructuredParameterProvider provider,
+              StructuredParameterProvider.Context context) {
+            assertEquals(0, slot);
+            invocations.incrementAndGet();
+            return provider.getParameter(context);
+          }
+
+          @Override
+          public int labelSlotOf(LabelProvider provider) {
+            return -1;
+          }
+
+          @Override
+          public Collection<Label> getLabels(
+              int slot, LabelProvider provider, LabelProvider.Context context) {
+            throw new AssertionError("unknown provider class called through invoker");
+          }
+        };
+
+    var formatter = new Formatter(List.of(parameterProvider), List.of(labelProvider));
+    var logRecord = makeSimpleRecord();
+    var expected = formatter.format(logRecord);
+
+    formatter.setProviderInvoker(providerInvoker);
+    assertEquals(expected, formatter.format(logRecord));
+    assertEquals(expected, formatter.format(logRecord));
+    assertEquals(2, invocations.get());
+  }
+
+  @Test
+  void refreshingProviders() {
+    var labelCalls = new AtomicInteger();
+    var parameterCalls = new AtomicInteger();
+
+    var labelProvider =
+        new LabelProvider() {
+          @Override
+          public Collection<Label> getLabels() {
+            return List.of(Label.of("calls", String.valueOf(labelCalls.incrementAndGet())));
+          }
+        };
+
+    var parameterProvider =
+        new StructuredParameterProvider() {
+          @Override
+          public StructuredParameter getParameter() {
+            return KeyValueParameter.of("calls", parameterCalls.incrementAndGet());
+          }
+        };
+
+    try (var refreshingLabelProvider =
+            RefreshingLabelProvider.of(labelProvider, Duration.ofDays(1));
+        var refreshingParameterProvider =
+            RefreshingParameterProvider.of(parameterProvider, Duration.ofDays(1))) {
+      var formatter =
+          new Formatter(List.of(refreshingParameterProvider), List.of(refreshingLabelProvider));
+      formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+
+      formatter.format(makeSimpleRecord());
+      var formattingResult = formatter.format(makeSimpleRecord());
+
+      assertEquals(1, labelCalls.get());
+      assertEquals(1, parameterCalls.get());
+      assertTrue(
+          formattingResult.startsWith(
+              "{\"logging.googleapis.com/labels\":{\"calls\":\"1\"},\"calls\":1,"));
+    }
+  }
+
+  @Test
+  void refresherSurvivesErrors() throws InterruptedException {
+    var calls = new AtomicInteger();
+    try (var refresher =
+        new Refresher<>(
+            () -> {
+              if (calls.incrementAndGet() == 2) {
+                throw new ExceptionInInitializerError("provider failed");
+              }
+              return calls.get();
+            },
+            Duration.ofMillis(10))) {
+      for (var i = 0; i < 500 && calls.get() < 3; i++) {
+        Thread.sleep(10);
+      }
+
+      assertTrue(calls.get() >= 3, "refresher stopped after " + calls.get() + " calls");
+    }
+  }
+
+  @Test
+  void rateLimiter() throws InterruptedException {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setRateLimiter(new RateLimiter(RateLimiter.KeyMode.LOGGER, Map.of(Level.WARN, 10)));
+
+    var warning = makeSimpleRecord();
+    warning.setLevel(Level.WARN);
+    var otherWarning = makeSimpleRecord();
+    otherWarning.setLevel(Level.WARN);
+    otherWarning.setLoggerName("other");
+
+    var written = 0;
+    for (var i = 0; i < 15; i++) {
+      if (!formatter.format(warning).isEmpty()) {
+        written++;
+      }
+    }
+    var suppressed = 15 - written;
+
+    // The rate applies per logger and does not affect lower levels.
+    assertFalse(formatter.format(otherWarning).isEmpty());
+    assertFalse(formatter.format(makeSimpleRecord()).isEmpty());
+
+    // One token per 100 ms.  The bucket may have refilled a little during the loop.
+    assertTrue(written >= 10);
+    assertTrue(suppressed > 0);
+
+    Thread.sleep(200);
+    var lines = formatter.format(warning).split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(
+        lines[0].startsWith(
+            "{\"suppressedLogEntries\":"
+                + suppressed
+                + ",\"message\":\"Suppressed "
+                + suppressed
+                + " similar log entries.\",\"severity\":\"WARNING\","));
+    assertTrue(lines[1].startsWith("{\"message\":\"Hello, world!\",\"severity\":\"WARNING\","));
+  }
+
+  @Test
+  void rateLimiterByCallSiteWithoutSourceLocation() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setRateLimiter(
+        new RateLimiter(RateLimiter.KeyMode.CALL_SITE, Map.of(Level.WARN, 10)));
+
+    var callerRequests = new AtomicInteger();
+    var warning =
+        new ExtLogRecord(Level.WARN, "Hello, world!", FormatterTest.class.getName()) {
+          @Override
+          public String getSourceClassName() {
+            callerRequests.incrementAndGet();
+            return super.getSourceClassName();
+          }
+        };
+
+    var written = 0;
+    for (var i = 0; i < 15; i++) {
+      if (!formatter.format(warning).isEmpty()) {
+        written++;
+      }
+    }
+
+    // The caller is not calculated just for the rate limiter; the logger is used as the key.
+    assertEquals(0, callerRequests.get());
+    assertTrue(written >= 10);
+    assertTrue(written < 15);
+  }
+
+  @Test
+  void rateLimiterWritesPendingSummaries() throws IOException, InterruptedException {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setRateLimiter(new RateLimiter(RateLimiter.KeyMode.LOGGER, Map.of(Level.WARN, 10)));
+
+    var warning = makeSimpleRecord();
+    warning.setLevel(Level.WARN);
+
+    var suppressed = 0;
+    for (var i = 0; i < 15; i++) {
+      if (formatter.format(warning).isEmpty()) {
+        suppressed++;
+      }
+    }
+    assertTrue(suppressed > 0);
+
+    // Once the bucket has refilled, the summary is written without waiting for the logger.
+    Thread.sleep(200);
+    var out = new ByteArrayOutputStream();
+    formatter.formatPending(out, false);
+    var lines = out.toString(UTF_8).split("\n");
+    assertEquals(1, lines.length);
+    assertTrue(
+        lines[0].startsWith(
+            "{\"suppressedLogEntries\":"
+                + suppressed
+                + ",\"message\":\"Suppressed "
+                + suppressed
+                + " similar log entries.\",\"severity\":\"WARNING\","));
+
+    out.reset();
+    formatter.formatPending(out, false);
+    assertEquals(0, out.size());
+    assertEquals(1, formatter.format(warning).split("\n").length);
+
+    // When all summaries are written, those of ongoing suppression are included.
+    for (var i = 0; i < 15; i++) {
+      formatter.format(warning);
+    }
+    formatter.formatPending(out, true);
+    lines = out.toString(UTF_8).split("\n");
+    assertEquals(1, lines.length);
+    assertTrue(lines[0].startsWith("{\"suppressedLogEntries\":"));
+  }
+
+  @Test
+  void rateLimiterPublishesPendingSummariesThroughHandler() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setRateLimiter(new RateLimiter(RateLimiter.KeyMode.LOGGER, Map.of(Level.WARN, 10)));
+    var out = new ByteArrayOutputStream();
+    var handler = new Utf8ConsoleHandler(formatter, out);
+
+    var warning = makeSimpleRecord();
+    warning.setLevel(Level.WARN);
+    for (var i = 0; i < 15; i++) {
+      handler.publish(warning);
+    }
+    var written = out.toString(UTF_8).split("\n").length;
+    assertTrue(written < 15);
+
+    // The summary is not rate-limited again on its way through the handler.
+    formatter.publishPending(handler, true);
+    var lines = out.toString(UTF_8).split("\n");
+    assertEquals(written + 1, lines.length);
+    assertTrue(lines[written].startsWith("{\"suppressedLogEntries\":" + (15 - written) + ","));
+  }
+
+  @Test
+  void filter() {
+    var providerCalls = new AtomicInteger();
+    var parameterProvider =
+        new StructuredParameterProvider() {
+          @Override
+          public StructuredParameter getParameter() {
+            providerCalls.incrementAndGet();
+            return KeyValueParameter.of("a", "b");
+          }
+        };
+    var formatter = new Formatter(List.of(parameterProvider), List.of());
+    formatter.setFilter(logRecord -> logRecord.getLevel().intValue() >= Level.WARN.intValue());
+
+    assertTrue(formatter.format(makeSimpleRecord()).isEmpty());
+    assertEquals(0, providerCalls.get());
+
+    var warning = makeSimpleRecord();
+    warning.setLevel(Level.WARN);
+    assertFalse(formatter.format(warning).isEmpty());
+    assertEquals(1, providerCalls.get());
+  }
+
+  @Test
+  void verboseLogging() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setVerboseLogging(new VerboseLogging(Level.INFO, "debug", "true"));
+
+    var info = makeSimpleRecord();
+    assertFalse(formatter.format(info).isEmpty());
+
+    var debug = makeSimpleRecord();
+    debug.setLevel(Level.DEBUG);
+    assertTrue(formatter.format(debug).isEmpty());
+
+    MDC.put("debug", "true");
+    try {
+      var flaggedDebug = makeSimpleRecord();
+      flaggedDebug.setLevel(Level.DEBUG);
+      assertFalse(formatter.format(flaggedDebug).isEmpty());
+    } finally {
+      MDC.remove("debug");
+    }
+  }
+
+  @Test
+  void metrics() {
+    var entries = new ArrayList<String>();
+    var bytes = new AtomicInteger();
+    var stackTraces = new AtomicInteger();
+    var drops = new ArrayList<FormatterMetrics.DropReason>();
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setMetrics(
+        new FormatterMetrics() {
+          @Override
+          public void recordEntry(String severity, int size) {
+            entries.add(severity);
+            bytes.addAndGet(size);
+          }
+
+          @Override
+          public void recordFormatLatency(long nanos) {}
+
+          @Override
+          public void recordProviderLatency(long nanos) {}
+
+          @Override
+          public void recordStackTrace() {
+            stackTraces.incrementAndGet();
+          }
+
+          @Override
+          public void recordDrop(FormatterMetrics.DropReason reason) {
+            drops.add(reason);
+          }
+        });
+    formatter.setFilter(logRecord -> logRecord.getLevel().intValue() >= Level.INFO.intValue());
+
+    var info = makeSimpleRecord();
+    var output = formatter.format(info);
+    assertEquals(List.of("INFO"), entries);
+    assertEquals(output.getBytes(UTF_8).length, bytes.get());
+
+    var error = makeSimpleRecord();
+    error.setLevel(Level.ERROR);
+    error.setThrown(new IllegalStateException("failed"));
+    formatter.format(error);
+    assertEquals(List.of("INFO", "ERROR"), entries);
+    assertEquals(1, stackTraces.get());
+
+    var debug = makeSimpleRecord();
+    debug.setLevel(Level.DEBUG);
+    assertTrue(formatter.format(debug).isEmpty());
+    assertEquals(List.of(FormatterMetrics.DropReason.FILTERED), drops);
+  }
+
+  @Test
+  void asyncHandlerWritesBufferedRecordsOnClose() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    var out = new ByteArrayOutputStream();
+    var handler = new AsyncConsoleHandler(new Utf8ConsoleHandler(formatter, out), 16);
+
+    for (var i = 0; i < 100; i++) {
+      handler.publish(makeSimpleRecord());
+    }
+    handler.close();
+
+    assertEquals(100, out.toString(UTF_8).lines().count());
+  }
+
+  @Test
+  void asyncHandlerRejectsNonPositiveSummaryInterval() {
+    var formatter = new Formatter(List.of(), List.of());
+    var handler =
+        new AsyncConsoleHandler(
+            new Utf8ConsoleHandler(formatter, OutputStream.nullOutputStream()), 16);
+    try {
+      assertThrows(IllegalArgumentException.class, () -> handler.setSummaryInterval(Duration.ZERO));
+    } finally {
+      handler.close();
+    }
+  }
+
+  @Test
+  void metricsWithAsyncHandler() {
+    var entries = new AtomicInteger();
+    var formats = new AtomicInteger();
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setMetrics(
+        new FormatterMetrics() {
+          @Override
+          public void recordEntry(String severity, int size) {
+            entries.incrementAndGet();
+          }
+
+          @Override
+          public void recordFormatLatency(long nanos) {
+            formats.incrementAndGet();
+          }
+
+          @Override
+          public void recordProviderLatency(long nanos) {}
+
+          @Override
+          public void recordStackTrace() {}
+
+          @Override
+          public void recordDrop(FormatterMetrics.DropReason reason) {}
+        });
+    var handler =
+        new AsyncConsoleHandler(
+            new Utf8ConsoleHandler(formatter, OutputStream.nullOutputStream()), 16);
+
+    for (var i = 0; i < 100; i++) {
+      handler.publish(makeSimpleRecord());
+    }
+    handler.close();
+
+    assertEquals(100, entries.get());
+    assertEquals(100, formats.get());
+  }
+
+  @Test
+  void boundedCacheKeepsEntriesInUse() {
+    var cache = new BoundedCache<String, String>(4);
+    cache.put("hot", "hot");
+
+    for (var i = 0; i < 100; i++) {
+      assertEquals("hot", cache.get("hot"));
+      cache.put("cold" + i, "cold");
+    }
+
+    assertEquals("hot", cache.get("hot"));
+    assertNull(cache.get("cold0"));
+  }
+
+  @Test
+  void duplicateCollapser() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setDuplicateCollapser(new DuplicateCollapser(Duration.ofMinutes(1)));
+
+    var first = makeSimpleRecord();
+    first.setLoggerName("retry");
+    first.setInstant(Instant.parse("2025-01-01T00:00:00Z"));
+    assertFalse(formatter.format(first).isEmpty());
+
+    for (var i = 1; i <= 3; i++) {
+      var duplicate = makeSimpleRecord();
+      duplicate.setLoggerName("retry");
+      duplicate.setInstant(Instant.parse("2025-01-01T00:00:0" + i + "Z"));
+      assertTrue(formatter.format(duplicate).isEmpty());
+    }
+
+    var different = makeStructuredRecord();
+    different.setLoggerName("retry");
+    var lines = formatter.format(different).split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(
+        lines[0].startsWith(
+            "{\"repeatCount\":3,"
+                + "\"firstTimestamp\":\"2025-01-01T00:00:01Z\","
+                + "\"lastTimestamp\":\"2025-01-01T00:00:03Z\","
+                + "\"message\":\"Hello, world!\","));
+    assertTrue(lines[1].contains("\"message\":\"Hello, world!\""));
+
+    // Outside of the window, a duplicate is written.
+    var late = makeStructuredRecord();
+    late.setLoggerName("retry");
+    late.setInstant(Instant.now().plus(Duration.ofMinutes(2)));
+    assertFalse(formatter.format(late).isEmpty());
+  }
+
+  @Test
+  void duplicateCollapserWritesPendingRuns() throws IOException {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setDuplicateCollapser(new DuplicateCollapser(Duration.ofMinutes(1)));
+
+    // A run whose window has passed is written without waiting for the logger to log again.
+    for (var i = 0; i <= 2; i++) {
+      var record = makeSimpleRecord();
+      record.setLoggerName("expired");
+      record.setInstant(Instant.parse("2025-01-01T00:00:0" + i + "Z"));
+      formatter.format(record);
+    }
+
+    // A run whose window has not passed yet is only written when all pending runs are.
+    for (var i = 0; i <= 1; i++) {
+      var record = makeSimpleRecord();
+      record.setLoggerName("ongoing");
+      record.setInstant(Instant.now());
+      formatter.format(record);
+    }
+
+    var out = new ByteArrayOutputStream();
+    formatter.formatPending(out, false);
+    var lines = out.toString(UTF_8).split("\n");
+    assertEquals(1, lines.length);
+    assertTrue(
+        lines[0].startsWith(
+            "{\"repeatCount\":2,"
+                + "\"firstTimestamp\":\"2025-01-01T00:00:01Z\","
+                + "\"lastTimestamp\":\"2025-01-01T00:00:02Z\","));
+
+    out.reset();
+    formatter.formatPending(out, false);
+    assertEquals(0, out.size());
+
+    formatter.formatPending(out, true);
+    lines = out.toString(UTF_8).split("\n");
+    assertEquals(1, lines.length);
+    assertTrue(lines[0].startsWith("{\"repeatCount\":1,"));
+    assertFalse(lines[0].contains("\"firstTimestamp\":\"2025-"));
+  }
+
+  @Test
+  void handlerWritesPendingRunsOnClose() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setDuplicateCollapser(new DuplicateCollapser(Duration.ofMinutes(1)));
+    var out = new ByteArrayOutputStream();
+    var handler = new AsyncConsoleHandler(new Utf8ConsoleHandler(formatter, out), 16);
+
+    for (var i = 0; i < 5; i++) {
+      var record = makeSimpleRecord();
+      record.setLoggerName("retry");
+      record.setInstant(Instant.now());
+      handler.publish(record);
+    }
+    handler.close();
+
+    var lines = out.toString(UTF_8).split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[1].startsWith("{\"repeatCount\":4,"));
+  }
+
+  @Test
+  void formatterPublishesPendingRunsThroughHandler() throws InterruptedException {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setDuplicateCollapser(new DuplicateCollapser(Duration.ofMillis(50)));
+    var out = new ByteArrayOutputStream();
+    var handler = new Utf8ConsoleHandler(formatter, out);
+
+    for (var i = 0; i < 5; i++) {
+      var record = makeSimpleRecord();
+      record.setLoggerName("retry");
+      record.setInstant(Instant.now());
+      handler.publish(record);
+    }
+    assertEquals(1, out.toString(UTF_8).split("\n").length);
+
+    Thread.sleep(100);
+    formatter.publishPending(handler, false);
+
+    var lines = out.toString(UTF_8).split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[1].startsWith("{\"repeatCount\":4,"));
+  }
+
+  @Test
+  void adaptiveDegradation() {
+    var degradation = new AdaptiveDegradation(Duration.ofMillis(1), 0.5);
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setAdaptiveDegradation(degradation);
+
+    var complete = formatter.format(makeThrownRecord());
+    assertFalse(complete.contains("\"logDegradation\""), complete);
+    assertTrue(complete.contains("\"logging.googleapis.com/sourceLocation\""), complete);
+
+    // A half-full queue enters the first stage.
+    degradation.recordQueueDepth(50, 100);
+    assertEquals(AdaptiveDegradation.Stage.NO_SOURCE_LOCATION, degradation.getStage());
+    var withoutSourceLocation = formatter.format(makeThrownRecord());
+    assertTrue(
+        withoutSourceLocation.contains("\"logDegradation\":\"no-source-location\","),
+        withoutSourceLocation);
+    assertFalse(
+        withoutSourceLocation.contains("\"logging.googleapis.com/sourceLocation\""),
+        withoutSourceLocation);
+    assertFalse(formatter.isCallerCalculationRequired(Level.ERROR));
+
+    // Slow writes push the pressure up further.
+    degradation.recordQueueDepth(0, 100);
+    for (var i = 0; i < 100; i++) {
+      degradation.recordWriteLatency(Duration.ofMillis(10).toNanos());
+    }
+    assertEquals(AdaptiveDegradation.Stage.SAMPLED, degradation.getStage());
+
+    var truncated = formatter.format(makeThrownRecord());
+    assertTrue(truncated.contains("\"logDegradation\":\"sampled\","), truncated);
+    var outerTrace =
+        truncated.substring(truncated.indexOf("outer"), truncated.indexOf("Suppressed: "));
+    assertEquals(5 + 1, outerTrace.split("\\\\tat ").length, truncated);
+    assertTrue(outerTrace.contains("\\t... "), truncated);
+
+    var written = 0;
+    for (var i = 0; i < 1000; i++) {
+      if (!formatter.format(makeSimpleRecord()).isEmpty()) {
+        written++;
+      }
+    }
+    assertTrue(written > 0 && written < 1000 / 4, "written: " + written);
+
+    // Once the writes are fast again, log entries are complete again.
+    for (var i = 0; i < 100; i++) {
+      degradation.recordWriteLatency(0);
+    }
+    assertEquals(AdaptiveDegradation.Stage.NONE, degradation.getStage());
+    assertFalse(formatter.format(makeSimpleRecord()).contains("\"logDegradation\""));
+  }
+
+  @Test
+  void traceContext() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+    formatter.setTraceProjectId("my-project");
+    formatter.setTraceContextProvider(
+        (logRecord, writer) -> {
+          if (logRecord.getLevel() != Level.DEBUG) {
+            writer.write("39f9a49a9567a8bd7087b708f8932550", "c7431b14630b633d", true);
+          }
+        });
+
+    var tracedResult = formatter.format(makeSimpleRecord());
+    var untracedResult =
+        formatter.format(
+            new ExtLogRecord(Level.DEBUG, "Hello, world!", FormatterTest.class.getName()));
+
+    assertTrue(
+        tracedResult.startsWith(
+            "{\"logging.googleapis.com/trace\":"
+                + "\"projects/my-project/traces/39f9a49a9567a8bd7087b708f8932550\","
+                + "\"logging.googleapis.com/spanId\":\"c7431b14630b633d\","
+                + "\"logging.googleapis.com/trace_sampled\":true,"
+                + "\"message\":\"Hello, world!\","));
+    assertTrue(untracedResult.startsWith("{\"message\":\"Hello, world!\","));
+  }
+
+  @Test
+  void steadyStateAllocation() throws IOException {
+    var structuredRecord = makeSimpleRecord();
+    structuredRecord.setParameters(
+        new Object[] {
+          KeyValueParameter.of("one", 1),
+          KeyValueParameter.of("two", 2.0),
+          KeyValueParameter.of("yes", true),
+          Label.of("a", "b"),
+          InsertId.of("123-456-789"),
+        });
+
+    // Reading the mapped diagnostic context copies it, which the log manager offers no way around.
+    // Apart from that, nothing may allocate.
+    var simple = withMdcCopiedInAdvance(makeSimpleRecord());
+    var structured = withMdcCopiedInAdvance(structuredRecord);
+
+    var formatter = new Formatter(List.of(), List.of());
+    var out = OutputStream.nullOutputStream();
+
+    assertEquals(
+        0,
+        AllocationBudgetTest.bytesAllocatedPerCall(() -> formatter.format(simple, out)),
+        "simple record");
+    assertEquals(
+        0,
+        AllocationBudgetTest.bytesAllocatedPerCall(() -> formatter.format(structured, out)),
+        "structured record");
+  }
+
+  @Test
+  void bufferPool() {
+    var formatter = new Formatter(List.of(), List.of());
+    formatter.setMaxPooledBufferSize(4096);
+
+    var largeRecord = makeSimpleRecord();
+    largeRecord.setMessage("x".repeat(100_000));
+
+    formatter.format(makeSimpleRecord());
+    var largeResult = formatter.format(largeRecord);
+    var simpleResult = formatter.format(makeSimpleRecord());
+
+    var statistics = formatter.getBufferPoolStatistics();
+    assertEquals(3, statistics.hits() + statistics.misses());
+    assertTrue(statistics.hits() >= 2);
+    assertEquals(largeResult.getBytes(UTF_8).length, statistics.highWaterMark());
+    assertTrue(simpleResult.contains("\"message\":\"Hello, world!\""));
+  }
+
+  @Test
+  void byteOutput() throws IOException {
+    var logRecord = makeNestedRecord();
+    logRecord.setMessage("Grüße, \uD83C\uDF0D! \"\\\t");
+
+    var formatter = new Formatter(List.of(), List.of());
+    var out = new ByteArrayOutputStream();
+    formatter.format(logRecord, out);
+
+    var formattingResult = out.toString(UTF_8);
+    assertTrue(
+        formattingResult.contains("\"message\":\"Grüße, \uD83C\uDF0D! \\\"\\\\\\t\","),
+        formattingResult);
+    assertEquals(formatter.format(logRecord), formattingResult);
+  }
 }
@@ -0,0 +1,76 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.Utf8ConsoleHandler;
+import java.io.OutputStream;
+import java.util.List;
+import org.jboss.logmanager.ExtLogRecord;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Publishes log records through the full handler path, with the output going to a null stream.
+ *
+ * <p>All threads share a single handler, as they would in an application, so the benchmarks with
+ * more threads measure contention on the handler and the formatter.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class HandlerBenchmark {
+
+  private final Utf8ConsoleHandler handler =
+      new Utf8ConsoleHandler(new Formatter(List.of(), List.of()), OutputStream.nullOutputStream());
+
+  @TearDown
+  public void tearDown() {
+    handler.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void publish1Thread(Records records) {
+    records.publishTo(handler);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void publish4Threads(Records records) {
+    records.publishTo(handler);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void publish16Threads(Records records) {
+    records.publishTo(handler);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void publish64Threads(Records records) {
+    records.publishTo(handler);
+  }
+
+  /** Log records owned by a single benchmark thread. */
+  @State(org.openjdk.jmh.annotations.Scope.Thread)
+  public static class Records {
+
+    private ExtLogRecord simpleLogRecord = FormatterTest.makeSimpleRecord();
+    private ExtLogRecord thrownLogRecord = FormatterTest.makeThrownRecord();
+    private int count = 0;
+
+    @Setup
+    public void setup() {
+      simpleLogRecord = FormatterTest.makeSimpleRecord();
+      thrownLogRecord = FormatterTest.makeThrownRecord();
+    }
+
+    /** Publishes a simple log record, and a log record with an exception every 100th time. */
+    void publishTo(Utf8ConsoleHandler handler) {
+      handler.publish(++count % 100 == 0 ? thrownLogRecord : simpleLogRecord);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class JsonEscapingBenchmark {
+
+  private static final String SHORT_KEY = "requestId";
+
+  private static final String LONG_CLEAN_MESSAGE =
+      "Request processed successfully for user 12345 in region europe-west1. ".repeat(30);
+
+  private static final String ESCAPE_DENSE_MESSAGE = "a\"b\\c\nd\te\u0001".repeat(200);
+
+  private static final String NON_ASCII_MESSAGE = "Grüße aus München, schöne Straße. ".repeat(60);
+
+  private final JsonBuffer buffer = new JsonBuffer();
+
+  @Benchmark
+  public void shortKey(Blackhole blackhole) {
+    escape(SHORT_KEY, blackhole);
+  }
+
+  @Benchmark
+  public void longCleanMessage(Blackhole blackhole) {
+    escape(LONG_CLEAN_MESSAGE, blackhole);
+  }
+
+  @Benchmark
+  public void escapeDenseMessage(Blackhole blackhole) {
+    escape(ESCAPE_DENSE_MESSAGE, blackhole);
+  }
+
+  @Benchmark
+  public void nonAsciiMessage(Blackhole blackhole) {
+    escape(NON_ASCII_MESSAGE, blackhole);
+  }
+
+  private void escape(String s, Blackhole blackhole) {
+    buffer.reset();
+    buffer.appendJsonString(s);
+    blackhole.consume(buffer.size());
+  }
+}
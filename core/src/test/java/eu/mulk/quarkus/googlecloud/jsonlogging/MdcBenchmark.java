@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.Level;
+import org.jboss.logmanager.MDC;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures what the copy of the mapped diagnostic context that {@link Formatter} makes per log
+ * entry costs, depending on the size of the context.
+ *
+ * <p>{@link #formatRecord} formats a log record as the application does. {@link
+ * #formatRecordWithoutMdcCopy} formats the same log record, except that its context has been
+ * copied in advance, so the difference between the two is the cost of the copy.
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1)
+// The MDC is thread-local, so it must be set up on the thread that runs the benchmark.
+@State(org.openjdk.jmh.annotations.Scope.Thread)
+public class MdcBenchmark {
+
+  @Param({"0", "4", "8", "16", "64"})
+  public int mdcSize;
+
+  private final Formatter formatter = new Formatter(List.of(), List.of());
+  private final OutputStream nullOutputStream = OutputStream.nullOutputStream();
+
+  private Map<String, String> mdcCopy = Map.of();
+
+  @Setup
+  public void setup() {
+    formatter.setSourceLocationMode(Formatter.SourceLocationMode.NEVER);
+
+    MDC.clear();
+    for (var i = 0; i < mdcSize; i++) {
+      MDC.put("mdcKey" + i, "mdcValue" + i);
+    }
+    mdcCopy = MDC.copy();
+  }
+
+  @TearDown
+  public void tearDown() {
+    MDC.clear();
+  }
+
+  @Benchmark
+  public void formatRecord() throws IOException {
+    var logRecord = new ExtLogRecord(Level.INFO, "Hello, world!", MdcBenchmark.class.getName());
+    logRecord.disableCallerCalculation();
+    formatter.format(logRecord, nullOutputStream);
+  }
+
+  @Benchmark
+  public void formatRecordWithoutMdcCopy() throws IOException {
+    var mdcCopy = this.mdcCopy;
+    var logRecord =
+        new ExtLogRecord(Level.INFO, "Hello, world!", MdcBenchmark.class.getName()) {
+          @Override
+          public Map<String, String> getMdcCopy() {
+            return mdcCopy;
+          }
+        };
+    logRecord.disableCallerCalculation();
+    formatter.format(logRecord, nullOutputStream);
+  }
+}
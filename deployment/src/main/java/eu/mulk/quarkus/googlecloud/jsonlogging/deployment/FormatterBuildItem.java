@@ -0,0 +1,38 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.deployment;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter;
+import io.quarkus.builder.item.SimpleBuildItem;
+import io.quarkus.runtime.RuntimeValue;
+import java.util.Optional;
+
+/**
+ * Holds the {@link Formatter} shared by the console handler and the asynchronous handler.
+ *
+ * <p>Empty at runtime if the extension is disabled.
+ */
+public final class FormatterBuildItem extends SimpleBuildItem {
+
+  private final RuntimeValue<Optional<Formatter>> formatter;
+
+  /**
+   * Constructs a {@link FormatterBuildItem}.
+   *
+   * @param formatter the recorded {@link Formatter}.
+   */
+  public FormatterBuildItem(RuntimeValue<Optional<Formatter>> formatter) {
+    this.formatter = formatter;
+  }
+
+  /**
+   * The recorded {@link Formatter}.
+   *
+   * @return the recorded {@link Formatter}.
+   */
+  public RuntimeValue<Optional<Formatter>> getFormatter() {
+    return formatter;
+  }
+}
@@ -4,13 +4,28 @@
 
 package eu.mulk.quarkus.googlecloud.jsonlogging.deployment;
 
+import eu.mulk.quarkus.googlecloud.jsonlogging.LabelProvider;
+import eu.mulk.quarkus.googlecloud.jsonlogging.StructuredParameterProvider;
 import eu.mulk.quarkus.googlecloud.jsonlogging.runtime.GoogleCloudJsonLoggingConfiguration;
 import eu.mulk.quarkus.googlecloud.jsonlogging.runtime.GoogleCloudJsonLoggingRecorder;
+import io.quarkus.arc.deployment.BeanDiscoveryFinishedBuildItem;
+import io.quarkus.arc.processor.BeanInfo;
+import io.quarkus.deployment.Capabilities;
+import io.quarkus.deployment.Capability;
+import io.quarkus.deployment.GeneratedClassGizmoAdaptor;
+import io.quarkus.deployment.annotations.BuildProducer;
 import io.quarkus.deployment.annotations.BuildStep;
 import io.quarkus.deployment.annotations.ExecutionTime;
 import io.quarkus.deployment.annotations.Record;
 import io.quarkus.deployment.builditem.FeatureBuildItem;
+import io.quarkus.deployment.builditem.GeneratedClassBuildItem;
 import io.quarkus.deployment.builditem.LogConsoleFormatBuildItem;
+import io.quarkus.deployment.builditem.LogHandlerBuildItem;
+import io.quarkus.deployment.builditem.ShutdownContextBuildItem;
+import io.quarkus.deployment.builditem.nativeimage.ReflectiveClassBuildItem;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Registers {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter} as the formatter for the
@@ -20,6 +35,9 @@ public class GoogleCloudLoggingProcessor {
 
   private static final String FEATURE = "googlecloud-jsonlogging";
 
+  private static final String PROVIDER_INVOKER_CLASS =
+      "eu.mulk.quarkus.googlecloud.jsonlogging.runtime.GeneratedProviderInvoker";
+
   /**
    * Returns the feature name of {@code "googlecloud-jsonlogging"}.
    *
@@ -31,16 +49,118 @@ public class GoogleCloudLoggingProcessor {
   }
 
   /**
-   * Constructs a {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter} at runtime and returns
-   * it.
+   * Generates a {@link eu.mulk.quarkus.googlecloud.jsonlogging.ProviderInvoker} for the provider
+   * beans of the application.
+   *
+   * <p>The generated class calls each provider through its bean class, which gives the JIT compiler
+   * a call site per provider class that it can inline. Bean classes that are not public cannot be
+   * referenced from the generated class and are left out, as are providers that are not beans.
+   *
+   * @param beanDiscovery the beans of the application.
+   * @param generatedClasses receives the generated class.
+   * @param reflectiveClasses receives the reflection registration of the generated class.
+   * @return the name of the generated class.
+   */
+  @BuildStep
+  public ProviderInvokerBuildItem generateProviderInvoker(
+      BeanDiscoveryFinishedBuildItem beanDiscovery,
+      BuildProducer<GeneratedClassBuildItem> generatedClasses,
+      BuildProducer<ReflectiveClassBuildItem> reflectiveClasses) {
+    ProviderInvokerGenerator.generate(
+        new GeneratedClassGizmoAdaptor(generatedClasses, true),
+        PROVIDER_INVOKER_CLASS,
+        providerClassesOf(beanDiscovery, StructuredParameterProvider.class),
+        providerClassesOf(beanDiscovery, LabelProvider.class));
+
+    reflectiveClasses.produce(
+        ReflectiveClassBuildItem.builder(PROVIDER_INVOKER_CLASS).constructors(true).build());
+
+    return new ProviderInvokerBuildItem(PROVIDER_INVOKER_CLASS);
+  }
+
+  /**
+   * Constructs a {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter} at runtime.
+   *
+   * <p>The formatter is shared by the console handler and the asynchronous handler, so it is
+   * constructed exactly once.
    *
    * @param recorder the recorder that implements the construction process at runtime.
+   * @param capabilities the capabilities of the application, used to detect OpenTelemetry and
+   *     Micrometer.
+   * @param providerInvoker the generated provider invoker.
+   * @return the recorded {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter}.
+   */
+  @BuildStep
+  @Record(ExecutionTime.RUNTIME_INIT)
+  public FormatterBuildItem createFormatter(
+      GoogleCloudJsonLoggingRecorder recorder,
+      GoogleCloudJsonLoggingConfiguration configuration,
+      Capabilities capabilities,
+      ProviderInvokerBuildItem providerInvoker) {
+    return new FormatterBuildItem(
+        recorder.createFormatter(
+            configuration,
+            isOpenTelemetryPresent(capabilities),
+            isMicrometerPresent(capabilities),
+            providerInvoker.getClassName()));
+  }
+
+  /**
+   * Registers the {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter} as the formatter of the
+   * console handler.
+   *
+   * @param recorder the recorder that implements the registration at runtime.
+   * @param formatter the recorded formatter.
+   * @param shutdownContext the shutdown context the formatter writes its held-back log entries by.
    * @return an instance of {@link eu.mulk.quarkus.googlecloud.jsonlogging.Formatter}.
    */
   @BuildStep
   @Record(ExecutionTime.RUNTIME_INIT)
   public LogConsoleFormatBuildItem setUpFormatter(
-      GoogleCloudJsonLoggingRecorder recorder, GoogleCloudJsonLoggingConfiguration configuration) {
-    return new LogConsoleFormatBuildItem(recorder.initialize(configuration));
+      GoogleCloudJsonLoggingRecorder recorder,
+      GoogleCloudJsonLoggingConfiguration configuration,
+      FormatterBuildItem formatter,
+      ShutdownContextBuildItem shutdownContext) {
+    return new LogConsoleFormatBuildItem(
+        recorder.initialize(configuration, formatter.getFormatter(), shutdownContext));
+  }
+
+  /**
+   * Constructs an {@link eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler}
+   * at runtime if asynchronous output is enabled.
+   *
+   * @param recorder the recorder that implements the construction process at runtime.
+   * @param formatter the recorded formatter.
+   * @param shutdownContext the shutdown context the handler is closed by.
+   * @return the asynchronous handler, if enabled.
+   */
+  @BuildStep
+  @Record(ExecutionTime.RUNTIME_INIT)
+  public LogHandlerBuildItem setUpAsyncHandler(
+      GoogleCloudJsonLoggingRecorder recorder,
+      GoogleCloudJsonLoggingConfiguration configuration,
+      FormatterBuildItem formatter,
+      ShutdownContextBuildItem shutdownContext) {
+    return new LogHandlerBuildItem(
+        recorder.initializeAsyncHandler(configuration, formatter.getFormatter(), shutdownContext));
+  }
+
+  private static List<String> providerClassesOf(
+      BeanDiscoveryFinishedBuildItem beanDiscovery, Class<?> providerType) {
+    return beanDiscovery.beanStream().classBeans().withBeanType(providerType).stream()
+        .map(BeanInfo::getImplClazz)
+        .filter(beanClass -> Modifier.isPublic(beanClass.flags()))
+        .map(beanClass -> beanClass.name().toString())
+        .distinct()
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private static boolean isOpenTelemetryPresent(Capabilities capabilities) {
+    return capabilities.isPresent(Capability.OPENTELEMETRY_TRACER);
+  }
+
+  private static boolean isMicrometerPresent(Capabilities capabilities) {
+    return capabilities.isPresent(Capability.MICROMETER);
   }
 }
@@ -0,0 +1,33 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.deployment;
+
+import io.quarkus.builder.item.SimpleBuildItem;
+
+/**
+ * Holds the name of the generated {@link eu.mulk.quarkus.googlecloud.jsonlogging.ProviderInvoker}.
+ */
+public final class ProviderInvokerBuildItem extends SimpleBuildItem {
+
+  private final String className;
+
+  /**
+   * Constructs a {@link ProviderInvokerBuildItem}.
+   *
+   * @param className the binary name of the generated class.
+   */
+  public ProviderInvokerBuildItem(String className) {
+    this.className = className;
+  }
+
+  /**
+   * The binary name of the generated class.
+   *
+   * @return the binary name of the generated class.
+   */
+  public String getClassName() {
+    return className;
+  }
+}
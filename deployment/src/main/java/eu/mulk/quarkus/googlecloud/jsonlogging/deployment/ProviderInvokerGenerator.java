@@ -0,0 +1,117 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.deployment;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.LabelProvider;
+import eu.mulk.quarkus.googlecloud.jsonlogging.ProviderInvoker;
+import eu.mulk.quarkus.googlecloud.jsonlogging.StructuredParameter;
+import eu.mulk.quarkus.googlecloud.jsonlogging.StructuredParameterProvider;
+import io.quarkus.gizmo.ClassCreator;
+import io.quarkus.gizmo.ClassOutput;
+import io.quarkus.gizmo.MethodDescriptor;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Generates a {@link ProviderInvoker} for a fixed list of provider classes.
+ *
+ * <p>The slot of a provider class is its index in the list. For each slot, the generated methods
+ * contain a separate call site that invokes the provider method on the provider class itself, so
+ * each call site only ever sees a single class. Providers of other classes are called through
+ * their interface.
+ */
+final class ProviderInvokerGenerator {
+
+  private ProviderInvokerGenerator() {}
+
+  /**
+   * Generates a {@link ProviderInvoker}.
+   *
+   * @param classOutput the output to write the generated class to.
+   * @param className the binary name of the generated class.
+   * @param parameterProviderClasses the binary names of the {@link StructuredParameterProvider}
+   *     classes to assign slots to.
+   * @param labelProviderClasses the binary names of the {@link LabelProvider} classes to assign
+   *     slots to.
+   */
+  static void generate(
+      ClassOutput classOutput,
+      String className,
+      List<String> parameterProviderClasses,
+      List<String> labelProviderClasses) {
+    try (var invoker =
+        ClassCreator.builder()
+            .classOutput(classOutput)
+            .className(className)
+            .interfaces(ProviderInvoker.class)
+            .build()) {
+      generateSlotOf(
+          invoker, "parameterSlotOf", StructuredParameterProvider.class, parameterProviderClasses);
+      generateInvoke(
+          invoker,
+          "getParameter",
+          StructuredParameter.class,
+          StructuredParameterProvider.class,
+          StructuredParameterProvider.Context.class,
+          parameterProviderClasses);
+
+      generateSlotOf(invoker, "labelSlotOf", LabelProvider.class, labelProviderClasses);
+      generateInvoke(
+          invoker,
+          "getLabels",
+          Collection.class,
+          LabelProvider.class,
+          LabelProvider.Context.class,
+          labelProviderClasses);
+    }
+  }
+
+  /** Generates {@code int methodName(providerType provider)}. */
+  private static void generateSlotOf(
+      ClassCreator invoker, String methodName, Class<?> providerType, List<String> classes) {
+    var method = invoker.getMethodCreator(methodName, int.class, providerType);
+    var provider = method.getMethodParam(0);
+
+    for (var slot = 0; slot < classes.size(); slot++) {
+      method
+          .ifTrue(method.instanceOf(provider, classes.get(slot)))
+          .trueBranch()
+          .returnValue(method.load(slot));
+    }
+
+    method.returnValue(method.load(-1));
+  }
+
+  /** Generates {@code returnType methodName(int slot, providerType provider, contextType ctx)}. */
+  private static void generateInvoke(
+      ClassCreator invoker,
+      String methodName,
+      Class<?> returnType,
+      Class<?> providerType,
+      Class<?> contextType,
+      List<String> classes) {
+    var method =
+        invoker.getMethodCreator(methodName, returnType, int.class, providerType, contextType);
+    var slot = method.getMethodParam(0);
+    var provider = method.getMethodParam(1);
+    var context = method.getMethodParam(2);
+
+    for (var i = 0; i < classes.size(); i++) {
+      var providerClass = classes.get(i);
+      var branch = method.ifIntegerEqual(slot, method.load(i)).trueBranch();
+      var typedProvider = branch.checkCast(provider, providerClass);
+      var result =
+          branch.invokeVirtualMethod(
+              MethodDescriptor.ofMethod(providerClass, methodName, returnType, contextType),
+              typedProvider,
+              context);
+      branch.returnValue(result);
+    }
+
+    var interfaceMethod =
+        MethodDescriptor.ofMethod(providerType, methodName, returnType, contextType);
+    method.returnValue(method.invokeInterfaceMethod(interfaceMethod, provider, context));
+  }
+}
@@ -0,0 +1,413 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.runtime;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter;
+import eu.mulk.quarkus.googlecloud.jsonlogging.Label;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.logging.Filter;
+import java.util.logging.LogRecord;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.LogContext;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A {@link Filter} that drops log records matching any of a set of rules.
+ *
+ * <p>A rule is a conjunction of conditions, for example:
+ *
+ * {@snippet lang="text" :
+ * logger=io.netty* AND level<WARN AND mdc.path=/healthz
+ * }
+ *
+ * <p>Each condition compares a field of the log record with a value:
+ *
+ * <ul>
+ *   <li>{@code logger} is the name of the logger.
+ *   <li>{@code level} is the level of the log record. Besides {@code =} and {@code !=}, it can be
+ *       compared with {@code <}, {@code <=}, {@code >}, and {@code >=}.
+ *   <li>{@code mdc.KEY} is the entry of the mapped diagnostic context with the key {@code KEY}.
+ *   <li>{@code label.KEY} is the value of the {@link Label} with the key {@code KEY} that is passed
+ *       to the log record as a parameter. Labels supplied by a {@link
+ *       eu.mulk.quarkus.googlecloud.jsonlogging.LabelProvider} are not considered, as filtering
+ *       happens before any provider is called.
+ * </ul>
+ *
+ * <p>Values may be enclosed in double quotes. A value ending in {@code *} matches all strings that
+ * start with what comes before the {@code *}. A field that is not present matches no value; {@code
+ * !=} matches it.
+ *
+ * <p>Rules are compiled into arrays of predicates. Rules with a {@code logger=} condition are
+ * indexed by a prefix trie of logger names, so a log record is only checked against the rules for
+ * its own logger and the rules without a {@code logger=} condition.
+ *
+ * @see Formatter#setFilter(Filter)
+ */
+public final class FilterRules implements Filter {
+
+  private static final Rule[] NO_RULES = new Rule[0];
+
+  private final Rule[] unindexedRules;
+  private final TrieNode loggerTrie;
+
+  private FilterRules(Rule[] unindexedRules, TrieNode loggerTrie) {
+    this.unindexedRules = unindexedRules;
+    this.loggerTrie = loggerTrie;
+  }
+
+  /**
+   * Compiles a set of rules.
+   *
+   * @param rules the rules in the syntax described in the {@linkplain FilterRules class
+   *     documentation}.
+   * @return a {@link Filter} that drops the log records that match any of {@code rules}.
+   * @throws IllegalArgumentException if any of {@code rules} is malformed.
+   */
+  public static FilterRules compile(Collection<String> rules) {
+    var unindexedRules = new ArrayList<Rule>();
+    var loggerTrie = new TrieNodeBuilder();
+
+    for (var rule : rules) {
+      var parser = new Parser(rule);
+      var conditions = parser.parseRule();
+
+      // Index the rule by its first logger= condition, which then need not be checked anymore.
+      @Nullable Condition index = null;
+      for (var condition : conditions) {
+        if (condition.field.equals("logger") && condition.operator.equals("=")) {
+          index = condition;
+          conditions.remove(condition);
+          break;
+        }
+      }
+
+      var compiled = new Rule(conditions);
+      if (index == null) {
+        unindexedRules.add(compiled);
+      } else {
+        loggerTrie.add(index.pattern, compiled);
+      }
+    }
+
+    return new FilterRules(unindexedRules.toArray(NO_RULES), loggerTrie.build());
+  }
+
+  @Override
+  public boolean isLoggable(LogRecord record) {
+    if (!(record instanceof ExtLogRecord)) {
+      return true;
+    }
+
+    var logRecord = (ExtLogRecord) record;
+    if (anyMatches(unindexedRules, logRecord)) {
+      return false;
+    }
+
+    var loggerName = logRecord.getLoggerName();
+    if (loggerName == null) {
+      loggerName = "";
+    }
+
+    var node = loggerTrie;
+    for (var i = 0; node != null; i++) {
+      if (anyMatches(node.prefixRules, logRecord)) {
+        return false;
+      }
+      if (i == loggerName.length()) {
+        return !anyMatches(node.exactRules, logRecord);
+      }
+      node = node.child(loggerName.charAt(i));
+    }
+
+    return true;
+  }
+
+  private static boolean anyMatches(Rule[] rules, ExtLogRecord logRecord) {
+    for (var rule : rules) {
+      if (rule.matches(logRecord)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** A conjunction of compiled conditions. */
+  private static final class Rule {
+
+    private final Predicate<ExtLogRecord>[] predicates;
+
+    @SuppressWarnings("unchecked")
+    Rule(List<Condition> conditions) {
+      predicates = conditions.stream().map(Condition::compile).toArray(Predicate[]::new);
+    }
+
+    boolean matches(ExtLogRecord logRecord) {
+      for (var predicate : predicates) {
+        if (!predicate.test(logRecord)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** A parsed condition of a rule. */
+  private static final class Condition {
+
+    final String field;
+    final String operator;
+    final String pattern;
+
+    Condition(String field, String operator, String pattern) {
+      this.field = field;
+      this.operator = operator;
+      this.pattern = pattern;
+    }
+
+    Predicate<ExtLogRecord> compile() {
+      if (field.equals("level")) {
+        return compileLevel();
+      }
+
+      if (!operator.equals("=") && !operator.equals("!=")) {
+        throw new IllegalArgumentException(
+            "operator " + operator + " cannot be applied to " + field);
+      }
+
+      var matches = compilePattern();
+      var negated = operator.equals("!=");
+
+      if (field.equals("logger")) {
+        return logRecord -> matches.test(logRecord.getLoggerName()) != negated;
+      } else if (field.startsWith("mdc.")) {
+        var key = field.substring("mdc.".length());
+        return logRecord -> matches.test(logRecord.getMdc(key)) != negated;
+      } else if (field.startsWith("label.")) {
+        var key = field.substring("label.".length());
+        return logRecord -> matches.test(labelOf(logRecord, key)) != negated;
+      } else {
+        throw new IllegalArgumentException("unknown field: " + field);
+      }
+    }
+
+    private Predicate<@Nullable String> compilePattern() {
+      if (pattern.endsWith("*")) {
+        var prefix = pattern.substring(0, pattern.length() - 1);
+        return value -> value != null && value.startsWith(prefix);
+      }
+      return pattern::equals;
+    }
+
+    private Predicate<ExtLogRecord> compileLevel() {
+      var level =
+          LogContext.getLogContext().getLevelForName(pattern.toUpperCase(Locale.ROOT)).intValue();
+      switch (operator) {
+        case "=":
+          return logRecord -> logRecord.getLevel().intValue() == level;
+        case "!=":
+          return logRecord -> logRecord.getLevel().intValue() != level;
+        case "<":
+          return logRecord -> logRecord.getLevel().intValue() < level;
+        case "<=":
+          return logRecord -> logRecord.getLevel().intValue() <= level;
+        case ">":
+          return logRecord -> logRecord.getLevel().intValue() > level;
+        case ">=":
+        default:
+          return logRecord -> logRecord.getLevel().intValue() >= level;
+      }
+    }
+
+    private static @Nullable String labelOf(ExtLogRecord logRecord, String key) {
+      var parameters = logRecord.getParameters();
+      if (parameters == null) {
+        return null;
+      }
+
+      for (var parameter : parameters) {
+        if (parameter instanceof Label && ((Label) parameter).key().equals(key)) {
+          return ((Label) parameter).value();
+        }
+      }
+      return null;
+    }
+  }
+
+  /** A node of the trie of logger names. */
+  private static final class TrieNode {
+
+    final char[] keys;
+    final TrieNode[] children;
+    final Rule[] prefixRules;
+    final Rule[] exactRules;
+
+    TrieNode(char[] keys, TrieNode[] children, Rule[] prefixRules, Rule[] exactRules) {
+      this.keys = keys;
+      this.children = children;
+      this.prefixRules = prefixRules;
+      this.exactRules = exactRules;
+    }
+
+    @Nullable TrieNode child(char c) {
+      var low = 0;
+      var high = keys.length - 1;
+      while (low <= high) {
+        var middle = (low + high) >>> 1;
+        if (keys[middle] < c) {
+          low = middle + 1;
+        } else if (keys[middle] > c) {
+          high = middle - 1;
+        } else {
+          return children[middle];
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Builds a {@link TrieNode} and its children. */
+  private static final class TrieNodeBuilder {
+
+    private final Map<Character, TrieNodeBuilder> children = new TreeMap<>();
+    private final List<Rule> prefixRules = new ArrayList<>();
+    private final List<Rule> exactRules = new ArrayList<>();
+
+    void add(String pattern, Rule rule) {
+      var prefix = pattern.endsWith("*");
+      var name = prefix ? pattern.substring(0, pattern.length() - 1) : pattern;
+
+      var node = this;
+      for (var i = 0; i < name.length(); i++) {
+        node = node.children.computeIfAbsent(name.charAt(i), c -> new TrieNodeBuilder());
+      }
+      (prefix ? node.prefixRules : node.exactRules).add(rule);
+    }
+
+    TrieNode build() {
+      var keys = new char[children.size()];
+      var builtChildren = new TrieNode[children.size()];
+      var i = 0;
+      for (var child : children.entrySet()) {
+        keys[i] = child.getKey();
+        builtChildren[i] = child.getValue().build();
+        i++;
+      }
+      return new TrieNode(
+          keys, builtChildren, prefixRules.toArray(NO_RULES), exactRules.toArray(NO_RULES));
+    }
+  }
+
+  /** Parses a single rule. */
+  private static final class Parser {
+
+    private final String rule;
+    private int position = 0;
+
+    Parser(String rule) {
+      this.rule = rule;
+    }
+
+    List<Condition> parseRule() {
+      try {
+        var conditions = new ArrayList<Condition>();
+        conditions.add(parseCondition());
+        while (skipWhitespace()) {
+          expectKeyword("AND");
+          conditions.add(parseCondition());
+        }
+
+        // Check the conditions right away so that errors are reported at startup.
+        for (var condition : conditions) {
+          condition.compile();
+        }
+        return conditions;
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "invalid filter rule \"" + rule + "\": " + e.getMessage(), e);
+      }
+    }
+
+    private Condition parseCondition() {
+      skipWhitespace();
+      var field = parseWhile(c -> Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-');
+      if (field.isEmpty()) {
+        throw error("field expected");
+      }
+
+      skipWhitespace();
+      var operator = parseWhile(c -> c == '=' || c == '!' || c == '<' || c == '>');
+      switch (operator) {
+        case "=":
+        case "!=":
+        case "<":
+        case "<=":
+        case ">":
+        case ">=":
+          break;
+        default:
+          throw error("operator expected");
+      }
+
+      skipWhitespace();
+      return new Condition(field, operator, parseValue());
+    }
+
+    private String parseValue() {
+      if (position < rule.length() && rule.charAt(position) == '"') {
+        var end = rule.indexOf('"', position + 1);
+        if (end < 0) {
+          throw error("unterminated string");
+        }
+        var value = rule.substring(position + 1, end);
+        position = end + 1;
+        return value;
+      }
+
+      var value = parseWhile(c -> !Character.isWhitespace(c));
+      if (value.isEmpty()) {
+        throw error("value expected");
+      }
+      return value;
+    }
+
+    private void expectKeyword(String keyword) {
+      var word = parseWhile(c -> !Character.isWhitespace(c));
+      if (!word.equalsIgnoreCase(keyword)) {
+        throw error(keyword + " expected");
+      }
+    }
+
+    /** Skips whitespace and tells whether there is anything left to parse. */
+    private boolean skipWhitespace() {
+      while (position < rule.length() && Character.isWhitespace(rule.charAt(position))) {
+        position++;
+      }
+      return position < rule.length();
+    }
+
+    private String parseWhile(CharPredicate predicate) {
+      var start = position;
+      while (position < rule.length() && predicate.test(rule.charAt(position))) {
+        position++;
+      }
+      return rule.substring(start, position);
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + position);
+    }
+  }
+
+  @FunctionalInterface
+  private interface CharPredicate {
+    boolean test(char c);
+  }
+}
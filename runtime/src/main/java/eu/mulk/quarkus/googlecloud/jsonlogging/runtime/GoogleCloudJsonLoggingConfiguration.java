@@ -6,10 +6,21 @@ package eu.mulk.quarkus.googlecloud.jsonlogging.runtime;
 
 import static io.quarkus.runtime.annotations.ConfigPhase.RUN_TIME;
 
+import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter.SourceLocationMode;
+import eu.mulk.quarkus.googlecloud.jsonlogging.RateLimiter;
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler;
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler.OverflowPolicy;
+import io.quarkus.runtime.annotations.ConfigGroup;
 import io.quarkus.runtime.annotations.ConfigRoot;
 import io.smallrye.config.ConfigMapping;
 import io.smallrye.config.WithDefault;
 import io.smallrye.config.WithParentName;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.logging.Level;
 
 /** Configuration for console logging in Google Cloud Logging JSON format. */
 @ConfigMapping(prefix = "quarkus.log.console.google")
@@ -24,4 +35,271 @@ public interface GoogleCloudJsonLoggingConfiguration {
   @WithDefault("true")
   @WithParentName
   boolean enabled();
+
+  /**
+   * Which log entries include the source location of the log statement.
+   *
+   * <p>Determining the source location requires walking the stack of the logging thread. Set to
+   * <code>warning-and-above</code> or <code>never</code> to avoid the cost for frequent log
+   * entries.
+   */
+  @WithDefault("always")
+  SourceLocationMode sourceLocation();
+
+  /** Stack trace rendering. */
+  StackTrace stackTrace();
+
+  /** Trace context. */
+  Trace trace();
+
+  /** Asynchronous log output. */
+  Async async();
+
+  /** Filtering of log entries. */
+  Filter filter();
+
+  /** Verbose logging for individual requests. */
+  Verbose verbose();
+
+  /** Collapsing of consecutive duplicate log entries. */
+  CollapseDuplicates collapseDuplicates();
+
+  /** Rate limiting. */
+  RateLimit rateLimit();
+
+  /** Degradation of log entries under logging pressure. */
+  Degradation degradation();
+
+  /** Metrics about log output. */
+  Metrics metrics();
+
+  /** Configuration for stack trace rendering. */
+  @ConfigGroup
+  interface StackTrace {
+
+    /**
+     * The maximum number of stack frames rendered per exception.
+     *
+     * <p>Frames beyond the limit are counted in the <code>... N more</code> line at the end of the
+     * stack trace. If unset, all frames are rendered.
+     */
+    OptionalInt maxFrames();
+
+    /**
+     * Package prefixes of stack frames to fold.
+     *
+     * <p>Consecutive frames from classes whose names start with the same prefix are rendered as a
+     * single line, e.g. <code>... 12 frames in io.vertx.</code>. Frames up to and including the
+     * first frame that does not match any prefix are never folded.
+     */
+    Optional<List<String>> foldedPackages();
+
+    /**
+     * The time for which repeated stack traces are abbreviated.
+     *
+     * <p>Log entries with an exception carry a fingerprint of the exception in the <code>
+     * exceptionFingerprint</code> field. Within the window after a fingerprint has been rendered in
+     * full, further occurrences only render the first line of the stack trace and carry their
+     * number in the <code>exceptionOccurrences</code> field. If unset, stack traces are always
+     * rendered in full.
+     */
+    Optional<Duration> repeatWindow();
+  }
+
+  /** Configuration for the trace context. */
+  @ConfigGroup
+  interface Trace {
+
+    /**
+     * Whether to fill in the trace, span ID, and sampling decision of log entries from the current
+     * OpenTelemetry span.
+     *
+     * <p>Only takes effect if the Quarkus OpenTelemetry extension is present.
+     */
+    @WithDefault("true")
+    boolean enabled();
+
+    /**
+     * The Google Cloud project ID to qualify trace IDs with.
+     *
+     * <p>Google Cloud Logging only associates log entries with traces if the trace field has the
+     * form <code>projects/PROJECT_ID/traces/TRACE_ID</code>. If unset, bare trace IDs are logged.
+     */
+    Optional<String> projectId();
+  }
+
+  /** Configuration for asynchronous log output. */
+  @ConfigGroup
+  interface Async {
+
+    /**
+     * Whether to format and write log entries on a background thread.
+     *
+     * <p>If enabled, log entries are written to <code>stdout</code> by an {@link
+     * AsyncConsoleHandler}. Requires <code>quarkus.log.console.enable=false</code>, as the regular
+     * console handler would write each log entry a second time otherwise.
+     */
+    @WithDefault("false")
+    boolean enabled();
+
+    /** The number of log entries that can be buffered. */
+    @WithDefault("8192")
+    int queueLength();
+
+    /** What to do with a log entry when the buffer is full. */
+    @WithDefault("block")
+    OverflowPolicy overflowPolicy();
+
+    /**
+     * The level below which log entries are dropped when the buffer is full.
+     *
+     * <p>Only used if the overflow policy is <code>drop-below-severity</code>.
+     */
+    @WithDefault("WARN")
+    Level dropThreshold();
+
+    /** The minimum interval between two summaries of dropped log entries. */
+    @WithDefault("10s")
+    Duration summaryInterval();
+  }
+
+  /** Configuration for filtering log entries. */
+  @ConfigGroup
+  interface Filter {
+
+    /**
+     * Rules for log entries to drop, by name.
+     *
+     * <p>A rule is a conjunction of conditions on the logger, level, MDC entries, and labels of a
+     * log record, e.g. <code>
+     * quarkus.log.console.google.filter.rules.healthz=logger=io.netty* AND level&lt;WARN AND
+     * mdc.path=/healthz</code>. Log records that match any rule are dropped before they are
+     * formatted. See {@link FilterRules} for the syntax.
+     */
+    Map<String, String> rules();
+  }
+
+  /** Configuration for verbose logging for individual requests. */
+  @ConfigGroup
+  interface Verbose {
+
+    /**
+     * The MDC key that switches verbose logging on.
+     *
+     * <p>If set, log entries below {@link #baseLevel()} are only written while the MDC entry with
+     * this key has the value {@link #mdcValue()}. The levels of the loggers concerned need to be
+     * lowered for such log entries to be produced in the first place, e.g. <code>
+     * quarkus.log.level=DEBUG</code> and <code>quarkus.log.min-level=DEBUG</code>.
+     *
+     * <p>If unset, all log entries that reach the formatter are written.
+     */
+    Optional<String> mdcKey();
+
+    /** The value of the MDC entry that switches verbose logging on. */
+    @WithDefault("true")
+    String mdcValue();
+
+    /** The minimum level of log entries that are written regardless of the MDC. */
+    @WithDefault("INFO")
+    Level baseLevel();
+  }
+
+  /** Configuration for metrics about log output. */
+  @ConfigGroup
+  interface Metrics {
+
+    /**
+     * Whether to publish metrics about log output to Micrometer.
+     *
+     * <p>Only has an effect if the Quarkus Micrometer extension is present. The metrics cover the
+     * log entries formatted by severity, their size, the time spent formatting log records and
+     * calling providers, the stack traces rendered, and the log records dropped by reason.
+     */
+    @WithDefault("true")
+    boolean enabled();
+  }
+
+  /** Configuration for collapsing consecutive duplicate log entries. */
+  @ConfigGroup
+  interface CollapseDuplicates {
+
+    /**
+     * Whether to collapse consecutive duplicate log entries of a logger.
+     *
+     * <p>Duplicates are log entries with the same level, message format, and parameters. Instead of
+     * being written, they are counted. The last of them is written when the logger writes a
+     * different log entry, with the number of duplicates in the <code>repeatCount</code> field
+     * and the timestamps of the first and last duplicate in the <code>firstTimestamp</code> and
+     * <code>lastTimestamp</code> fields. If the logger goes quiet, it is written within a second
+     * after the window has passed.
+     */
+    @WithDefault("false")
+    boolean enabled();
+
+    /** The maximum time between a log entry and the duplicates that are collapsed into it. */
+    @WithDefault("10s")
+    Duration window();
+  }
+
+  /** Configuration for rate limiting. */
+  @ConfigGroup
+  interface RateLimit {
+
+    /**
+     * Whether to limit the rate of log entries.
+     *
+     * <p>Log entries beyond the rate are suppressed. The next log entry that is let through is
+     * preceded by a summary entry stating the number of suppressed entries. If no log entry
+     * follows, the summary entry is written on its own within a second after the rate allows it.
+     */
+    @WithDefault("false")
+    boolean enabled();
+
+    /**
+     * What log entries share a rate limit.
+     *
+     * <p><code>call-site</code> only takes effect for log entries whose source location is
+     * included (see <code>source-location</code>). Other log entries share a rate limit per
+     * logger, so the caller of a log entry is never determined just for rate limiting.
+     */
+    @WithDefault("logger")
+    RateLimiter.KeyMode key();
+
+    /**
+     * The maximum number of log entries per second by level.
+     *
+     * <p>Each rate applies to log entries of its level and above, up to the next level with a rate
+     * of its own, e.g. <code>quarkus.log.console.google.rate-limit.rates.warn=100</code>. Log
+     * entries below all configured levels are not limited.
+     */
+    Map<String, Integer> rates();
+  }
+
+  /** Configuration for the degradation of log entries under logging pressure. */
+  @ConfigGroup
+  interface Degradation {
+
+    /**
+     * Whether to make log entries cheaper to produce while log output is backed up.
+     *
+     * <p>As the pressure rises, log entries first lose their source location, then their
+     * diagnostic contexts and the parameters of providers, then most of their stack traces, and
+     * finally all but one in ten log entries of level <code>INFO</code> and below are dropped.
+     * Degraded log entries carry the stage in the <code>logDegradation</code> field.
+     *
+     * <p>The pressure is measured from the latency of writes to standard output and from the fill
+     * level of the buffer of asynchronous output, so this requires asynchronous output to be
+     * enabled.
+     */
+    @WithDefault("false")
+    boolean enabled();
+
+    /** The average write latency at which log entries start to be degraded. */
+    @WithDefault("1ms")
+    Duration writeLatencyThreshold();
+
+    /** The fill level of the asynchronous buffer, from 0 to 1, at which degradation starts. */
+    @WithDefault("0.5")
+    double queueFillThreshold();
+  }
 }
@@ -4,34 +4,201 @@
 
 package eu.mulk.quarkus.googlecloud.jsonlogging.runtime;
 
+import eu.mulk.quarkus.googlecloud.jsonlogging.AdaptiveDegradation;
+import eu.mulk.quarkus.googlecloud.jsonlogging.DuplicateCollapser;
 import eu.mulk.quarkus.googlecloud.jsonlogging.Formatter;
 import eu.mulk.quarkus.googlecloud.jsonlogging.LabelProvider;
+import eu.mulk.quarkus.googlecloud.jsonlogging.ProviderInvoker;
+import eu.mulk.quarkus.googlecloud.jsonlogging.RateLimiter;
 import eu.mulk.quarkus.googlecloud.jsonlogging.StructuredParameterProvider;
+import eu.mulk.quarkus.googlecloud.jsonlogging.VerboseLogging;
+import eu.mulk.quarkus.googlecloud.jsonlogging.logmanager.AsyncConsoleHandler;
 import io.quarkus.arc.Arc;
 import io.quarkus.runtime.RuntimeValue;
+import io.quarkus.runtime.ShutdownContext;
 import io.quarkus.runtime.annotations.Recorder;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.jboss.logmanager.ExtHandler;
+import org.jspecify.annotations.Nullable;
 
 /** A Quarkus recorder that registers {@link Formatter} as a log formatter for the application. */
 @Recorder
 public class GoogleCloudJsonLoggingRecorder {
 
+  private static final String CONSOLE_ENABLE_PROPERTY = "quarkus.log.console.enable";
+
+  private static final Duration PENDING_INTERVAL = Duration.ofSeconds(1);
+
   /**
-   * Registers {@link Formatter} as a log formatter for the application.
+   * Creates the {@link Formatter} of the application.
    *
    * <p>Collects all discoverable {@link StructuredParameterProvider}s and {@link LabelProvider}s
    * and passes them to {@link Formatter#Formatter(Collection, Collection)}.
    *
+   * <p>The same {@link Formatter} is used by the console handler and, if asynchronous output is
+   * enabled, the {@link AsyncConsoleHandler}, so that both share the state of its rate limiter,
+   * duplicate collapser, and so on.
+   *
+   * @param openTelemetryPresent whether the Quarkus OpenTelemetry extension is present.
+   * @param micrometerPresent whether the Quarkus Micrometer extension is present.
+   * @param providerInvokerClassName the name of the {@link ProviderInvoker} generated at build
+   *     time.
+   * @return the {@link Formatter}, unless the extension is disabled.
+   */
+  public RuntimeValue<Optional<Formatter>> createFormatter(
+      GoogleCloudJsonLoggingConfiguration configuration,
+      boolean openTelemetryPresent,
+      boolean micrometerPresent,
+      String providerInvokerClassName) {
+    if (!configuration.enabled()) {
+      return new RuntimeValue<>(Optional.empty());
+    }
+
+    return new RuntimeValue<>(
+        Optional.of(
+            createFormatterInstance(
+                configuration, openTelemetryPresent, micrometerPresent, providerInvokerClassName)));
+  }
+
+  /**
+   * Registers {@link Formatter} as the log formatter of the console handler.
+   *
+   * <p>The log entries that the {@link Formatter} holds back are published through the console
+   * handler once per second and on shutdown, as the console handler does not know about them.
+   * With asynchronous output, the {@link AsyncConsoleHandler} writes them instead.
+   *
+   * @param formatter the {@link Formatter} created by {@link #createFormatter}.
+   * @param shutdownContext the shutdown context the held-back log entries are written by.
    * @return the registered {@link Formatter}.
    */
   public RuntimeValue<Optional<java.util.logging.Formatter>> initialize(
-      GoogleCloudJsonLoggingConfiguration configuration) {
-    if (!configuration.enabled()) {
+      GoogleCloudJsonLoggingConfiguration configuration,
+      RuntimeValue<Optional<Formatter>> formatter,
+      ShutdownContext shutdownContext) {
+    if (!configuration.async().enabled()) {
+      formatter
+          .getValue()
+          .filter(f -> f.getDuplicateCollapser() != null || f.getRateLimiter() != null)
+          .ifPresent(f -> schedulePublishPending(f, shutdownContext));
+    }
+
+    return new RuntimeValue<>(formatter.getValue().map(java.util.logging.Formatter.class::cast));
+  }
+
+  private static void schedulePublishPending(Formatter formatter, ShutdownContext shutdownContext) {
+    var scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "googlecloud-jsonlogging-pending");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        () -> publishPending(formatter, false),
+        PENDING_INTERVAL.toNanos(),
+        PENDING_INTERVAL.toNanos(),
+        TimeUnit.NANOSECONDS);
+    shutdownContext.addLastShutdownTask(
+        () -> {
+          scheduler.shutdownNow();
+          publishPending(formatter, true);
+        });
+  }
+
+  private static void publishPending(Formatter formatter, boolean all) {
+    var handler = handlerOf(formatter, Logger.getLogger("").getHandlers());
+    if (handler == null) {
+      return;
+    }
+
+    try {
+      formatter.publishPending(handler, all);
+    } catch (RuntimeException e) {
+      // Letting it escape would cancel the periodic task for good.
+      ExtHandler.reportError(
+          handler, "Error writing held-back log entries", e, ErrorManager.GENERIC_FAILURE);
+    }
+  }
+
+  /**
+   * Finds the handler among {@code handlers} and their nested handlers whose formatter is {@code
+   * formatter}.
+   */
+  private static @Nullable Handler handlerOf(Formatter formatter, Handler[] handlers) {
+    for (var handler : handlers) {
+      if (handler.getFormatter() == formatter) {
+        return handler;
+      }
+
+      if (handler instanceof ExtHandler) {
+        var nestedHandler = handlerOf(formatter, ((ExtHandler) handler).getHandlers());
+        if (nestedHandler != null) {
+          return nestedHandler;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Creates an {@link AsyncConsoleHandler} if asynchronous output is enabled.
+   *
+   * <p>The handler is closed on shutdown, which writes all log entries that are still buffered.
+   *
+   * <p>Fails if the regular console handler is enabled as well, which would write each log entry a
+   * second time.
+   *
+   * @param formatter the {@link Formatter} created by {@link #createFormatter}.
+   * @return the {@link AsyncConsoleHandler} to register, if any.
+   */
+  public RuntimeValue<Optional<Handler>> initializeAsyncHandler(
+      GoogleCloudJsonLoggingConfiguration configuration,
+      RuntimeValue<Optional<Formatter>> formatter,
+      ShutdownContext shutdownContext) {
+    var asyncConfiguration = configuration.async();
+    if (formatter.getValue().isEmpty() || !asyncConfiguration.enabled()) {
       return new RuntimeValue<>(Optional.empty());
     }
 
+    var consoleEnabled =
+        ConfigProvider.getConfig()
+            .getOptionalValue(CONSOLE_ENABLE_PROPERTY, Boolean.class)
+            .orElse(true);
+    if (consoleEnabled) {
+      throw new IllegalStateException(
+          "quarkus.log.console.google.async.enabled requires "
+              + CONSOLE_ENABLE_PROPERTY
+              + "=false, as the console handler would write each log entry a second time");
+    }
+
+    var handler =
+        new AsyncConsoleHandler(formatter.getValue().get(), asyncConfiguration.queueLength());
+    handler.setOverflowPolicy(asyncConfiguration.overflowPolicy());
+    handler.setDropThreshold(asyncConfiguration.dropThreshold());
+    handler.setSummaryInterval(asyncConfiguration.summaryInterval());
+    shutdownContext.addLastShutdownTask(handler::close);
+
+    return new RuntimeValue<>(Optional.of(handler));
+  }
+
+  private static Formatter createFormatterInstance(
+      GoogleCloudJsonLoggingConfiguration configuration,
+      boolean openTelemetryPresent,
+      boolean micrometerPresent,
+      String providerInvokerClassName) {
     var parameterProviders =
         Arc.container().select(StructuredParameterProvider.class).stream()
             .collect(Collectors.toList());
@@ -39,6 +206,81 @@ public class GoogleCloudJsonLoggingRecorder {
     var labelProviders =
         Arc.container().select(LabelProvider.class).stream().collect(Collectors.toList());
 
-    return new RuntimeValue<>(Optional.of(Formatter.load(parameterProviders, labelProviders)));
+    var formatter = Formatter.load(parameterProviders, labelProviders);
+    formatter.setProviderInvoker(loadProviderInvoker(providerInvokerClassName));
+
+    formatter.setSourceLocationMode(configuration.sourceLocation());
+
+    var stackTraceConfiguration = configuration.stackTrace();
+    stackTraceConfiguration.maxFrames().ifPresent(formatter::setMaxStackTraceFrames);
+    stackTraceConfiguration.foldedPackages().ifPresent(formatter::setFoldedStackTracePackages);
+    stackTraceConfiguration.repeatWindow().ifPresent(formatter::setRepeatedStackTraceWindow);
+
+    var traceConfiguration = configuration.trace();
+    if (openTelemetryPresent && traceConfiguration.enabled()) {
+      formatter.setTraceContextProvider(new OpenTelemetryTraceContextProvider());
+      traceConfiguration.projectId().ifPresent(formatter::setTraceProjectId);
+    }
+
+    if (micrometerPresent && configuration.metrics().enabled()) {
+      formatter.setMetrics(MicrometerFormatterMetrics.INSTANCE);
+    }
+
+    var verboseConfiguration = configuration.verbose();
+    verboseConfiguration
+        .mdcKey()
+        .ifPresent(
+            mdcKey ->
+                formatter.setVerboseLogging(
+                    new VerboseLogging(
+                        verboseConfiguration.baseLevel(),
+                        mdcKey,
+                        verboseConfiguration.mdcValue())));
+
+    var filterRules = configuration.filter().rules();
+    if (!filterRules.isEmpty()) {
+      formatter.setFilter(FilterRules.compile(filterRules.values()));
+    }
+
+    var collapseDuplicatesConfiguration = configuration.collapseDuplicates();
+    if (collapseDuplicatesConfiguration.enabled()) {
+      formatter.setDuplicateCollapser(
+          new DuplicateCollapser(collapseDuplicatesConfiguration.window()));
+    }
+
+    var rateLimitConfiguration = configuration.rateLimit();
+    if (rateLimitConfiguration.enabled()) {
+      formatter.setRateLimiter(
+          new RateLimiter(
+              rateLimitConfiguration.key(), ratesByLevel(rateLimitConfiguration.rates())));
+    }
+
+    var degradationConfiguration = configuration.degradation();
+    if (degradationConfiguration.enabled()) {
+      formatter.setAdaptiveDegradation(
+          new AdaptiveDegradation(
+              degradationConfiguration.writeLatencyThreshold(),
+              degradationConfiguration.queueFillThreshold()));
+    }
+
+    return formatter;
+  }
+
+  private static Map<Level, Integer> ratesByLevel(Map<String, Integer> rates) {
+    var ratesByLevel = new HashMap<Level, Integer>();
+    rates.forEach(
+        (level, rate) -> ratesByLevel.put(Level.parse(level.toUpperCase(Locale.ROOT)), rate));
+    return ratesByLevel;
+  }
+
+  private static ProviderInvoker loadProviderInvoker(String className) {
+    try {
+      return (ProviderInvoker)
+          Class.forName(className, true, Thread.currentThread().getContextClassLoader())
+              .getDeclaredConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("cannot instantiate provider invoker " + className, e);
+    }
   }
 }
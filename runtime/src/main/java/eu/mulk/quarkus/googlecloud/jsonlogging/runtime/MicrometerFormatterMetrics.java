@@ -0,0 +1,126 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.runtime;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.FormatterMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link FormatterMetrics} that publish measurements to Micrometer.
+ *
+ * <p>Counts are kept in {@link LongAdder}s, which Micrometer reads through {@link FunctionCounter}s
+ * when metrics are published, so counting does not contend across logging threads. Latencies are
+ * recorded by {@link Timer}s with percentile histograms.
+ *
+ * <p>Meters are registered with the {@linkplain Metrics#globalRegistry global registry}, to which
+ * the Quarkus Micrometer extension adds its registries. The application has a single {@link
+ * eu.mulk.quarkus.googlecloud.jsonlogging.Formatter}, which is shared by the console handler and
+ * the asynchronous handler, so each log record is measured once. There is a single instance of
+ * this class, so that the meters, which stay registered when dev mode restarts the application,
+ * remain bound to the counters that are updated.
+ *
+ * <p>Only loaded if the Quarkus Micrometer extension is present.
+ */
+final class MicrometerFormatterMetrics implements FormatterMetrics {
+
+  private static final String PREFIX = "jsonlogging.";
+
+  /** The instance shared by all formatters. */
+  static final MicrometerFormatterMetrics INSTANCE =
+      new MicrometerFormatterMetrics(Metrics.globalRegistry);
+
+  private final MeterRegistry registry;
+
+  private final ConcurrentHashMap<String, LongAdder> entries = new ConcurrentHashMap<>();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder stackTraces = new LongAdder();
+  private final Map<DropReason, LongAdder> drops = new EnumMap<>(DropReason.class);
+
+  private final Timer formatTimer;
+  private final Timer providerTimer;
+
+  private MicrometerFormatterMetrics(MeterRegistry registry) {
+    this.registry = registry;
+
+    FunctionCounter.builder(PREFIX + "bytes", bytes, LongAdder::doubleValue)
+        .description("The size of the formatted log entries")
+        .baseUnit(BaseUnits.BYTES)
+        .register(registry);
+
+    FunctionCounter.builder(PREFIX + "stacktraces", stackTraces, LongAdder::doubleValue)
+        .description("The number of stack traces rendered")
+        .register(registry);
+
+    for (var reason : DropReason.values()) {
+      var dropped = new LongAdder();
+      drops.put(reason, dropped);
+      FunctionCounter.builder(PREFIX + "dropped", dropped, LongAdder::doubleValue)
+          .description("The number of log records that were not written")
+          .tag("reason", reason.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+          .register(registry);
+    }
+
+    formatTimer =
+        Timer.builder(PREFIX + "format")
+            .description("The time it takes to format a log record")
+            .publishPercentileHistogram()
+            .register(registry);
+
+    providerTimer =
+        Timer.builder(PREFIX + "providers")
+            .description("The time it takes to call the providers for a log entry")
+            .publishPercentileHistogram()
+            .register(registry);
+  }
+
+  @Override
+  public void recordEntry(String severity, int size) {
+    var counter = entries.get(severity);
+    if (counter == null) {
+      counter = entries.computeIfAbsent(severity, this::registerEntryCounter);
+    }
+    counter.increment();
+    bytes.add(size);
+  }
+
+  private LongAdder registerEntryCounter(String severity) {
+    var counter = new LongAdder();
+    FunctionCounter.builder(PREFIX + "entries", counter, LongAdder::doubleValue)
+        .description("The number of log entries formatted")
+        .tag("severity", severity)
+        .register(registry);
+    return counter;
+  }
+
+  @Override
+  public void recordFormatLatency(long nanos) {
+    formatTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordProviderLatency(long nanos) {
+    providerTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordStackTrace() {
+    stackTraces.increment();
+  }
+
+  @Override
+  public void recordDrop(DropReason reason) {
+    drops.get(reason).increment();
+  }
+}
@@ -0,0 +1,40 @@
+// SPDX-FileCopyrightText: © 2025 Matthias Andreas Benkard <code@mail.matthias.benkard.de>
+//
+// SPDX-License-Identifier: LGPL-3.0-or-later
+
+package eu.mulk.quarkus.googlecloud.jsonlogging.runtime;
+
+import eu.mulk.quarkus.googlecloud.jsonlogging.TraceContextProvider;
+import io.opentelemetry.api.trace.Span;
+import org.jboss.logmanager.ExtLogRecord;
+
+/**
+ * A {@link TraceContextProvider} that takes the trace context from OpenTelemetry.
+ *
+ * <p>Uses the span that is current on the formatting thread. If there is none, which is the case
+ * when log records are formatted asynchronously, falls back to the {@code traceId}, {@code spanId},
+ * and {@code sampled} entries that the Quarkus OpenTelemetry extension puts into the MDC.
+ *
+ * <p>Only loaded if the Quarkus OpenTelemetry extension is present.
+ */
+final class OpenTelemetryTraceContextProvider implements TraceContextProvider {
+
+  private static final String TRACE_ID_MDC_KEY = "traceId";
+  private static final String SPAN_ID_MDC_KEY = "spanId";
+  private static final String SAMPLED_MDC_KEY = "sampled";
+
+  @Override
+  public void writeTraceContext(ExtLogRecord logRecord, Writer writer) {
+    var spanContext = Span.current().getSpanContext();
+    if (spanContext.isValid()) {
+      writer.write(spanContext.getTraceId(), spanContext.getSpanId(), spanContext.isSampled());
+      return;
+    }
+
+    var traceId = logRecord.getMdc(TRACE_ID_MDC_KEY);
+    var spanId = logRecord.getMdc(SPAN_ID_MDC_KEY);
+    if (traceId != null && spanId != null) {
+      writer.write(traceId, spanId, Boolean.parseBoolean(logRecord.getMdc(SAMPLED_MDC_KEY)));
+    }
+  }
+}